@@ -0,0 +1,118 @@
+
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+//Minimal benchmark harness: warmup and measured iterations of fixed wall time,
+//results written as JMH-style JSON so runs can be compared with each other
+public class Benchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500000000L;
+    //two-sided 99.9% normal quantile, as the scoreError of JMH
+    private static final double Z = 3.291;
+
+    public interface Operation {
+        Object Run();
+    }
+
+    //Consumes results so the JIT can not drop the measured work
+    public static volatile int sink;
+
+    private String output;
+    private Pattern filter;
+    private List<String> results = new ArrayList<String>();
+
+    //Arguments: [result file] [regular expression the benchmark name must contain]
+    public Benchmark(String[] args) {
+        output = args.length > 0 ? args[0] : null;
+        filter = Pattern.compile(args.length > 1 ? args[1] : "");
+    }
+
+    public boolean IsSelected(String name) {
+        return filter.matcher(name).find();
+    }
+
+    //operationsPerCall: how many logical operations one Run performs, the score is per operation
+    public void Measure(String name, String[] params, int operationsPerCall, Operation operation) {
+        if(!IsSelected(name)) return;
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++)
+            Iteration(operation, operationsPerCall);
+
+        double[] score = new double[MEASUREMENT_ITERATIONS];
+        for(int i = 0; i < MEASUREMENT_ITERATIONS; i++)
+            score[i] = Iteration(operation, operationsPerCall);
+
+        double mean = 0, variance = 0;
+        for(int i = 0; i < score.length; i++) mean += score[i] / score.length;
+        for(int i = 0; i < score.length; i++) variance += (score[i] - mean) * (score[i] - mean) / (score.length - 1);
+        double error = Z * Math.sqrt(variance / score.length);
+
+        StringBuilder json = new StringBuilder();
+        json.append("    {\n        \"benchmark\" : \"").append(name).append("\",\n");
+        json.append("        \"mode\" : \"avgt\",\n");
+        json.append("        \"warmupIterations\" : ").append(WARMUP_ITERATIONS).append(",\n");
+        json.append("        \"measurementIterations\" : ").append(MEASUREMENT_ITERATIONS).append(",\n");
+        json.append("        \"params\" : {");
+        for(int i = 0; i + 1 < params.length; i += 2)
+            json.append(i == 0 ? "\n" : ",\n").append("            \"").append(params[i]).append("\" : \"").append(params[i + 1]).append("\"");
+        json.append(params.length > 0 ? "\n        },\n" : "},\n");
+        json.append("        \"primaryMetric\" : {\n");
+        json.append("            \"score\" : ").append(mean).append(",\n");
+        json.append("            \"scoreError\" : ").append(error).append(",\n");
+        json.append("            \"scoreUnit\" : \"ns/op\",\n");
+        json.append("            \"rawData\" : [[");
+        for(int i = 0; i < score.length; i++)
+            json.append(i == 0 ? "" : ", ").append(score[i]);
+        json.append("]]\n        }\n    }");
+        results.add(json.toString());
+
+        StringBuilder line = new StringBuilder(name);
+        for(int i = 0; i + 1 < params.length; i += 2)
+            line.append(i == 0 ? " (" : ", ").append(params[i]).append(" = ").append(params[i + 1]);
+        System.err.println(line.append(params.length > 0 ? ")" : "")
+            .append(": ").append(String.format("%.3f", mean)).append(" +- ").append(String.format("%.3f", error)).append(" ns/op"));
+    }
+
+    //Average ns per operation over one iteration; a single slow call still counts as one iteration
+    private static double Iteration(Operation operation, int operationsPerCall) {
+        long calls = 0, start = System.nanoTime(), elapsed;
+        int local = 0;
+
+        do {
+            Object result = operation.Run();
+            local += result == null ? 0 : result.hashCode();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < ITERATION_NANOS);
+
+        sink += local;
+        return (double)elapsed / (calls * operationsPerCall);
+    }
+
+    public void Finish() throws IOException {
+        StringBuilder json = new StringBuilder("[\n");
+        for(int i = 0; i < results.size(); i++)
+            json.append(results.get(i)).append(i + 1 < results.size() ? ",\n" : "\n");
+        json.append("]\n");
+
+        if(output == null) {
+            System.out.print(json);
+            return;
+        }
+
+        Writer writer = new FileWriter(output);
+        try {
+            writer.write(json.toString());
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
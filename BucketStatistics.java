@@ -0,0 +1,67 @@
+
+package pkgclass.hashmap;
+
+//Distribution of lookup costs: an entry's cost is the number of slots or chain
+//elements that have to be compared before its key is found
+class BucketStatistics {
+    private static final int HISTOGRAM_SIZE = 16;
+
+    private int buckets, usedBuckets, entries, maxCost;
+    private long totalCost;
+    private int[] histogram;
+
+    BucketStatistics(int _buckets) {
+        buckets = _buckets;
+        histogram = new int[HISTOGRAM_SIZE];
+    }
+
+    public void AddUsedBucket() {
+        usedBuckets++;
+    }
+
+    public void AddEntry(int cost) {
+        entries++;
+        totalCost += cost;
+        if(cost > maxCost) maxCost = cost;
+        histogram[cost < HISTOGRAM_SIZE ? cost : HISTOGRAM_SIZE - 1]++;
+    }
+
+    public int GetBuckets()         { return buckets; }
+    public int GetUsedBuckets()     { return usedBuckets; }
+    public int GetEntries()         { return entries; }
+    public int GetMaxCost()         { return maxCost; }
+    public int[] GetHistogram()     { return histogram.clone(); }
+
+    public double GetAverageCost() {
+        return entries == 0 ? 0 : (double)totalCost / entries;
+    }
+
+    //Buckets a well distributed function is expected to fill: m * (1 - (1 - 1/m)^n)
+    public double GetExpectedUsedBuckets() {
+        return buckets * (1 - Math.pow(1 - 1.0 / buckets, entries));
+    }
+
+    public static BucketStatistics Measure(HashFunction function, String[] keys, int buckets) {
+        BucketStatistics statistics = new BucketStatistics(buckets);
+        int[] chain = new int[buckets];
+
+        for(int i = 0; i < keys.length; i++) {
+            int index = (function.Hash(keys[i]) & 0x7fffffff) % buckets;
+            if(chain[index]++ == 0)
+                statistics.AddUsedBucket();
+            statistics.AddEntry(chain[index]);
+        }
+        return statistics;
+    }
+
+    public void Print() {
+        System.out.println("buckets: " + buckets + ", used: " + usedBuckets
+            + " (expected " + Math.round(GetExpectedUsedBuckets()) + "), entries: " + entries);
+        System.out.println("average cost: " + GetAverageCost() + ", max cost: " + maxCost);
+
+        for(int i = 1; i < HISTOGRAM_SIZE; i++)
+            if(histogram[i] != 0)
+                System.out.println((i == HISTOGRAM_SIZE - 1 ? ">=" : "") + i + ": " + histogram[i]);
+        System.out.println();
+    }
+}
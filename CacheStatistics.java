@@ -0,0 +1,28 @@
+
+package pkgclass.hashmap;
+
+//Counters of a Hash in cache mode, copied at the moment of the call
+class CacheStatistics {
+    private long hits, misses, evictions, expirations;
+
+    CacheStatistics(long _hits, long _misses, long _evictions, long _expirations) {
+        hits = _hits;
+        misses = _misses;
+        evictions = _evictions;
+        expirations = _expirations;
+    }
+
+    public long GetHits()           { return hits; }
+    public long GetMisses()         { return misses; }
+    public long GetEvictions()      { return evictions; }
+    public long GetExpirations()    { return expirations; }
+
+    public double GetHitRate() {
+        return hits + misses == 0 ? 1 : (double)hits / (hits + misses);
+    }
+
+    public String toString() {
+        return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+            + ", expirations: " + expirations + ", hit rate: " + GetHitRate();
+    }
+}
@@ -1,23 +1,41 @@
 
 package pkgclass.hashmap;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import metrics.LatencyHistogram;
+import metrics.MemoryEstimate;
+import metrics.OperationMetrics;
+
 class Hash<Type> {
     private final static int SIZE_OF_TABLE = 1000;
     
     //Element
     private class Element<Type> {
         private String key;
+        private int hash;
         private Type value;
         private Element prev, next;
+        private Element before, after;
+        private int weight;
+        private long expireAt;
 
-        Element(String _key, Type _value, Element _next, Element _prev) {
+        Element(String _key, int _hash, Type _value, Element _next, Element _prev) {
             key = _key;
+            hash = _hash;
             value = _value;
             next = _next;
             prev = _prev;
         }
 
         public String GetKey()          { return key; }
+        public int GetHash()            { return hash; }
         public Element GetNextElement() { return next; }
         public Element GetPrevElement() { return prev; }
         public Type GetValue()          { return value; }
@@ -30,106 +48,150 @@ class Hash<Type> {
     public class Iterator {
         private Hash hash;
         private Element element;
+        private int slot = -1;
 
         public Iterator(Hash _hash, String key) {
             hash = _hash;
-            element = hash.FindElementByKey(key);
+            GetElementByKey(key);
         }
 
         public Iterator(Hash _hash) {
             hash = _hash;
-            element = hash.GetFirstElement();
+            GetFirstElement();
         }
 
         public boolean IsDereferencable() {
+            if(hash.storage != null) return slot >= 0;
             if(element != null) return true;
             return false;
         }
 
         public void AdwanceOne() {
-            if(!IsDereferencable()) {
-                element = hash.GetFirstElement();
-                return;
-            }
-
-            if(element.GetNextElement() != null) {
-                element = element.GetNextElement();
+            if(hash.storage != null) {
+                slot = IsDereferencable() ? hash.storage.GetNext(slot) : hash.storage.GetFirst();
                 return;
             }
 
-            int index = hash.CalculateHash(element.GetKey()) + 1;
-
-            while(index < SIZE_OF_TABLE && hash.GetElementByIndex(index) == null)
-                index++;
-
-            if(index == SIZE_OF_TABLE)
-                element = null;
+            if(!IsDereferencable())
+                element = hash.GetFirstElement();
             else
-                element = hash.GetElementByIndex(index);
+                element = element.after;
         }
         
         public void RewindOne() {
-            if(!IsDereferencable()) {
-                element = hash.GetRearElement();
-                return;
-            }
-            
-            if(element.GetPrevElement() != null) {
-                element = element.GetPrevElement();
+            if(hash.storage != null) {
+                slot = IsDereferencable() ? hash.storage.GetPrev(slot) : hash.storage.GetRear();
                 return;
             }
-            
-            int index = hash.CalculateHash(element.GetKey()) - 1;
-
-            while(index >= 0 && hash.GetElementByIndex(index) == null)
-                index--;
 
-            if(index < 0)
-                element = null;
-            else {
-                element = hash.GetElementByIndex(index);
-                while(element.GetNextElement() != null)
-                    element = element.GetNextElement();
-            }
+            if(!IsDereferencable())
+                element = hash.GetRearElement();
+            else
+                element = element.before;
         }
         
-        public void GetFirstElement()           { element = hash.GetFirstElement(); }
-        public void GetRearElement()            { element = hash.GetRearElement(); }
-        public void GetElementByKey(String key) { element = hash.FindElementByKey(key); }
-        public Type Dereference()               { return (Type)element.GetValue(); }
-        public String GetKey()                  { return element.GetKey(); }
+        public void GetFirstElement() {
+            if(hash.storage != null) slot = hash.storage.GetFirst();
+            else element = hash.GetFirstElement();
+        }
+
+        public void GetRearElement() {
+            if(hash.storage != null) slot = hash.storage.GetRear();
+            else element = hash.GetRearElement();
+        }
+
+        public void GetElementByKey(String key) {
+            if(hash.storage != null) slot = hash.FindSlot(key);
+            else element = hash.FindElementByKey(key);
+        }
+
+        public Type Dereference() {
+            if(hash.storage != null) return (Type)hash.storage.GetValue(slot);
+            return (Type)element.GetValue();
+        }
+
+        public String GetKey() {
+            if(hash.storage != null) return hash.storage.GetKey(slot);
+            return element.GetKey();
+        }
     }
     
     //Hash
     private int size;
     private Element[] element;
+    private Storage<Type> storage;
+    private HashFunction hashFunction;
+    
+    //Chained elements are also linked from the eldest (head) to the newest (tail);
+    //in cache mode a lookup moves the element to the tail
+    private Element head, tail;
+    private long maximumWeight = -1, totalWeight, expireAfterWrite;
+    private Weigher<Type> weigher;
+    private EvictionListener<Type> evictionListener;
+    private FrequencySketch sketch;
+    private long hits, misses, evictions, expirations;
+    //null while metrics are off
+    private HashMetrics metrics;
     
     public Hash() {
+        this(HashFunction.STRING_MIX);
+    }
+    
+    public Hash(HashFunction _hashFunction) {
         size = 0;
         element = new Element[SIZE_OF_TABLE];
+        hashFunction = _hashFunction;
+    }
+    
+    //Open addressing mode: power-of-two table resized between the load factors
+    public Hash(int initialCapacity, double minLoadFactor, double maxLoadFactor) {
+        this(initialCapacity, minLoadFactor, maxLoadFactor, HashFunction.STRING_MIX);
+    }
+    
+    public Hash(int initialCapacity, double minLoadFactor, double maxLoadFactor, HashFunction _hashFunction) {
+        hashFunction = _hashFunction;
+        storage = new OpenAddressingStorage<Type>(initialCapacity, minLoadFactor, maxLoadFactor, hashFunction);
+    }
+    
+    //Off-heap mode: entries are serialized outside the Java heap, into direct buffers
+    //or, when a file is given, into that file mapped into memory (reopened if it exists)
+    public Hash(int initialCapacity, String file) throws IOException {
+        this(initialCapacity, file, HashFunction.STRING_MIX);
+    }
+    
+    public Hash(int initialCapacity, String file, HashFunction _hashFunction) throws IOException {
+        hashFunction = _hashFunction;
+        if(file == null)
+            storage = new OffHeapStorage<Type>(initialCapacity, hashFunction);
+        else
+            storage = new OffHeapStorage<Type>(file, initialCapacity, hashFunction);
+    }
+    
+    public boolean IsOpenAddressing() {
+        return storage != null;
+    }
+    
+    public boolean IsOffHeap() {
+        return storage instanceof OffHeapStorage;
+    }
+    
+    public void Flush() {
+        if(IsOffHeap()) ((OffHeapStorage)storage).Force();
     }
     
+    //Turns the metrics off too, so that JMX no longer reads the table
+    public void Close() throws IOException {
+        SetMetricsEnabled(false);
+        if(IsOffHeap()) ((OffHeapStorage)storage).Close();
+    }
+    
+    //Iteration order: insertion order, or least to most recently used in cache mode
     public Element GetFirstElement() {
-        for(int i = 0; i < SIZE_OF_TABLE; i++)
-            if(element[i] != null)
-                return element[i];
-        
-        return null;
+        return head;
     }
     
     public Element GetRearElement() {
-        Element elem;
-        
-        for(int i = SIZE_OF_TABLE - 1; i >= 0; i--)
-            if(element[i] != null) {
-                elem = element[i];
-                while(elem.GetNextElement() != null)
-                    elem = elem.GetNextElement();
-                
-                return elem;
-            }
-        
-        return null;
+        return tail;
     }
     
     public Element GetElementByIndex(int index) {
@@ -137,61 +199,429 @@ class Hash<Type> {
     }
     
     public Element FindElementByKey(String key) {
-        int index = CalculateHash(key);
-        Element elem = element[index];
+        if(storage != null) return null;
+        if(metrics == null) return FindElement(key, hashFunction.Hash(key));
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            Element elem = FindElement(key, hashFunction.Hash(key));
+            Record(OperationMetrics.LOOKUP, start, 1);
+            return elem;
+        }
+    }
+    
+    //Storage slot of the key, or -1
+    int FindSlot(String key) {
+        if(metrics == null) return storage.Find(key);
+        
+        //only reads the table, so it needs no lock
+        long start = System.nanoTime();
+        int slot = storage.Find(key);
+        Record(OperationMetrics.LOOKUP, start, 1);
+        return slot;
+    }
+    
+    private Element FindElement(String key, int hash) {
+        Element elem = element[IndexFor(hash)];
         
-        while(elem != null && !elem.GetKey().equals(key)) 
+        while(elem != null && (elem.GetHash() != hash || !elem.GetKey().equals(key))) 
             elem = elem.GetNextElement(); 
         
-        return elem == null ? null : elem;
+        if(IsCache()) return RecordAccess(elem, hash);
+        return elem;
+    }
+    
+    private Element RecordAccess(Element elem, int hash) {
+        if(sketch != null)
+            sketch.Increment(hash);
+        
+        if(elem != null && expireAfterWrite > 0 && System.nanoTime() - elem.expireAt > 0) {
+            RemoveElement(elem);
+            expirations++;
+            Notify(elem, EvictionListener.Cause.EXPIRED);
+            elem = null;
+        }
+        
+        if(elem == null) {
+            misses++;
+            return null;
+        }
+        
+        hits++;
+        if(maximumWeight >= 0)
+            MoveToTail(elem);
+        return elem;
     }
     
     public void Insert(String key, Type value) {
-        int index = CalculateHash(key);
+        if(metrics == null) {
+            Insert(key, hashFunction.Hash(key), value);
+            return;
+        }
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            Insert(key, hashFunction.Hash(key), value);
+            Record(OperationMetrics.INSERT, start, 1);
+        }
+    }
+    
+    private void Insert(String key, int hash, Type value) {
+        if(storage != null) {
+            storage.Insert(key, hash, value);
+            return;
+        }
+        
+        int index = IndexFor(hash);
         Element prev = null, elem = element[index];
         
         if(elem == null) { 
-            element[index] = new Element(key, value, null, null);
+            element[index] = new Element(key, hash, value, null, null);
         }
         else {
             while(elem != null) {
-                if(elem.GetKey().equals(key)) {
+                if(elem.GetHash() == hash && elem.GetKey().equals(key)) {
                     elem.SetValue(value);
+                    if(IsCache()) {
+                        Admit(elem);
+                        MoveToTail(elem);
+                        Evict(null);
+                    }
                     return;
                 }
                 prev = elem;
                 elem = elem.GetNextElement();
             }
         
-            elem = new Element(key, value, null, prev);
+            elem = new Element(key, hash, value, null, prev);
             prev.SetNextElement(elem);
         }        
         size++;
+        LinkLast(elem == null ? element[index] : elem);
+        
+        if(IsCache()) {
+            if(sketch != null)
+                sketch.Increment(hash);
+            Admit(tail);
+            Evict(tail);
+        }
+    }
+    
+    //Bulk load path: the caller guarantees that the key is not in the table yet
+    void InsertUnique(String key, Type value) {
+        if(storage != null) storage.InsertUnique(key, value);
+        else Insert(key, value);
     }
     
     public void Delete(String key) {
-        int index = CalculateHash(key);
-        Element prev = null, elem = element[index];
+        if(metrics == null) {
+            Delete(key, hashFunction.Hash(key));
+            return;
+        }
         
-        while(elem != null && !elem.GetKey().equals(key)) {
-            prev = elem;
-            elem = elem.GetNextElement();
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            Delete(key, hashFunction.Hash(key));
+            Record(OperationMetrics.DELETE, start, 1);
+        }
+    }
+    
+    private void Delete(String key, int hash) {
+        if(storage != null) {
+            storage.Delete(key, hash);
+            return;
         }
         
+        Element elem = element[IndexFor(hash)];
+        
+        while(elem != null && (elem.GetHash() != hash || !elem.GetKey().equals(key)))
+            elem = elem.GetNextElement();
+        
         if(elem == null) return;
+        
+        RemoveElement(elem);
+    }
     
-        if(prev == null) 
-            element[index] = elem.GetNextElement();
+    //Batch operations: the whole batch is hashed first and then visited grouped by
+    //bucket, so the table is walked in memory order instead of at random
+    public void InsertAll(String[] keys, Type[] values) {
+        if(keys.length != values.length)
+            throw new IllegalArgumentException("Keys and values differ in length: " + keys.length + " != " + values.length);
+        if(metrics == null) {
+            PutAll(keys, values);
+            return;
+        }
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            PutAll(keys, values);
+            Record(OperationMetrics.INSERT, start, keys.length);
+        }
+    }
+    
+    private void PutAll(String[] keys, Type[] values) {
+        int[] hashes = HashAll(keys);
+        
+        //one resize up front covers the whole batch
+        if(storage != null)
+            storage.Reserve(storage.GetSize() + keys.length);
+        
+        int[] order = GroupByBucket(hashes);
+        for(int i = 0; i < order.length; i++)
+            Insert(keys[order[i]], hashes[order[i]], values[order[i]]);
+    }
+    
+    //Fills out[i] with the value of keys[i], or null when the key is missing
+    public void GetAll(String[] keys, Type[] out) {
+        if(metrics == null) {
+            FindAll(keys, out);
+            return;
+        }
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            FindAll(keys, out);
+            Record(OperationMetrics.LOOKUP, start, keys.length);
+        }
+    }
+    
+    private void FindAll(String[] keys, Type[] out) {
+        int[] hashes = HashAll(keys);
+        int[] order = GroupByBucket(hashes);
+        
+        for(int i = 0; i < order.length; i++) {
+            int k = order[i];
+            
+            if(storage != null) {
+                int slot = storage.Find(keys[k], hashes[k]);
+                out[k] = slot < 0 ? null : storage.GetValue(slot);
+            }
+            else {
+                //in cache mode FindElement records the access itself
+                Element elem = FindElement(keys[k], hashes[k]);
+                out[k] = elem == null ? null : (Type)elem.GetValue();
+            }
+        }
+    }
+    
+    public void DeleteAll(String[] keys) {
+        if(metrics == null) {
+            RemoveAll(keys);
+            return;
+        }
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            RemoveAll(keys);
+            Record(OperationMetrics.DELETE, start, keys.length);
+        }
+    }
+    
+    private void RemoveAll(String[] keys) {
+        int[] hashes = HashAll(keys);
+        int[] order = GroupByBucket(hashes);
+        
+        for(int i = 0; i < order.length; i++)
+            Delete(keys[order[i]], hashes[order[i]]);
+    }
+    
+    private int[] HashAll(String[] keys) {
+        int[] hashes = new int[keys.length];
+        for(int i = 0; i < keys.length; i++)
+            hashes[i] = hashFunction.Hash(keys[i]);
+        return hashes;
+    }
+    
+    //Batch positions sorted by home bucket; ties keep batch order, so a key repeated
+    //in the batch is still applied in the order given
+    private int[] GroupByBucket(int[] hashes) {
+        long[] packed = new long[hashes.length];
+        for(int i = 0; i < hashes.length; i++) {
+            long bucket = storage != null ? storage.HomeOf(hashes[i]) : IndexFor(hashes[i]);
+            packed[i] = (bucket << 32) | i;
+        }
+        Arrays.sort(packed);
+        
+        int[] order = new int[hashes.length];
+        for(int i = 0; i < hashes.length; i++)
+            order[i] = (int)packed[i];
+        return order;
+    }
+    
+    private void RemoveElement(Element elem) {
+        if(elem.GetPrevElement() == null) 
+            element[IndexFor(elem.GetHash())] = elem.GetNextElement();
         else                        
-            prev.SetNextElement(elem.GetNextElement());
+            elem.GetPrevElement().SetNextElement(elem.GetNextElement());
+        
+        if(elem.GetNextElement() != null)
+            elem.GetNextElement().SetPrevElement(elem.GetPrevElement());
         
+        Unlink(elem);
+        totalWeight -= elem.weight;
         size--;
     }
     
+    private void LinkLast(Element elem) {
+        elem.before = tail;
+        elem.after = null;
+        if(tail == null) head = elem;
+        else tail.after = elem;
+        tail = elem;
+    }
+    
+    private void Unlink(Element elem) {
+        if(elem.before == null) head = elem.after;
+        else elem.before.after = elem.after;
+        
+        if(elem.after == null) tail = elem.before;
+        else elem.after.before = elem.before;
+    }
+    
+    private void MoveToTail(Element elem) {
+        if(elem == tail) return;
+        Unlink(elem);
+        LinkLast(elem);
+    }
+    
+    //Cache mode
+    public boolean IsCache() {
+        return maximumWeight >= 0 || expireAfterWrite > 0;
+    }
+    
+    public void SetMaximumSize(long maximumSize) {
+        SetMaximumWeight(maximumSize, null);
+    }
+    
+    //Bounds the total weight of the entries; a null weigher gives every entry weight 1
+    public void SetMaximumWeight(long _maximumWeight, Weigher<Type> _weigher) {
+        if(storage != null)
+            throw new UnsupportedOperationException("Cache mode needs the chained table");
+        if(_maximumWeight < 0)
+            throw new IllegalArgumentException("Negative maximum weight: " + _maximumWeight);
+        
+        if(metrics == null) {
+            Bound(_maximumWeight, _weigher);
+            return;
+        }
+        synchronized(metrics) {
+            Bound(_maximumWeight, _weigher);
+        }
+    }
+    
+    private void Bound(long _maximumWeight, Weigher<Type> _weigher) {
+        maximumWeight = _maximumWeight;
+        weigher = _weigher;
+        for(Element elem = head; elem != null; elem = elem.after)
+            Admit(elem);
+        Evict(null);
+    }
+    
+    //TinyLFU admission: a new entry that would evict a more frequently used one is dropped instead
+    public void SetFrequencyAdmission(boolean enabled) {
+        if(storage != null)
+            throw new UnsupportedOperationException("Cache mode needs the chained table");
+        sketch = enabled ? new FrequencySketch(maximumWeight >= 0 ? maximumWeight : SIZE_OF_TABLE) : null;
+    }
+    
+    public void SetExpireAfterWrite(long duration, TimeUnit unit) {
+        if(storage != null)
+            throw new UnsupportedOperationException("Cache mode needs the chained table");
+        expireAfterWrite = unit.toNanos(duration);
+        
+        //the entries already there count as written now
+        long expireAt = System.nanoTime() + expireAfterWrite;
+        for(Element elem = head; elem != null; elem = elem.after)
+            elem.expireAt = expireAt;
+    }
+    
+    public void SetEvictionListener(EvictionListener<Type> listener) {
+        evictionListener = listener;
+    }
+    
+    public CacheStatistics GetCacheStatistics() {
+        return new CacheStatistics(hits, misses, evictions, expirations);
+    }
+    
+    public long GetTotalWeight() {
+        return totalWeight;
+    }
+    
+    //Removes every expired entry instead of waiting for it to be looked up
+    public void CleanUp() {
+        if(expireAfterWrite <= 0) return;
+        
+        if(metrics == null) {
+            RemoveExpired();
+            return;
+        }
+        synchronized(metrics) {
+            RemoveExpired();
+        }
+    }
+    
+    private void RemoveExpired() {
+        long now = System.nanoTime();
+        for(Element elem = head, after; elem != null; elem = after) {
+            after = elem.after;
+            if(now - elem.expireAt > 0) {
+                RemoveElement(elem);
+                expirations++;
+                Notify(elem, EvictionListener.Cause.EXPIRED);
+            }
+        }
+    }
+    
+    private void Admit(Element elem) {
+        totalWeight -= elem.weight;
+        elem.weight = weigher == null ? 1 : weigher.Weigh(elem.GetKey(), (Type)elem.GetValue());
+        totalWeight += elem.weight;
+        if(expireAfterWrite > 0)
+            elem.expireAt = System.nanoTime() + expireAfterWrite;
+    }
+    
+    private void Evict(Element candidate) {
+        while(maximumWeight >= 0 && totalWeight > maximumWeight && head != null) {
+            Element victim = head;
+            
+            if(sketch != null && candidate != null && victim != candidate
+            && sketch.Frequency(candidate.GetHash()) < sketch.Frequency(victim.GetHash()))
+                victim = candidate;
+            
+            if(victim == candidate)
+                candidate = null;
+            
+            RemoveElement(victim);
+            evictions++;
+            Notify(victim, EvictionListener.Cause.SIZE);
+        }
+    }
+    
+    private void Notify(Element elem, EvictionListener.Cause cause) {
+        if(evictionListener != null)
+            evictionListener.OnEviction(elem.GetKey(), (Type)elem.GetValue(), cause);
+    }
+    
     public int GetSize() {
+        if(storage != null) return storage.GetSize();
         return size;
     }
     
+    //Writes a binary snapshot that Load turns back into an open addressing Hash
+    public void Save(String path) throws IOException {
+        HashSnapshot.Save(this, path);
+    }
+    
+    //With the hash function recorded in the snapshot
+    public static Hash Load(String path) throws IOException {
+        return HashSnapshot.Load(path, null);
+    }
+    
+    //With the given hash function instead of the recorded one; keys are hashed again
+    public static Hash Load(String path, HashFunction hashFunction) throws IOException {
+        return HashSnapshot.Load(path, hashFunction);
+    }
+    
     public void Print() {
         for(Iterator iterator = new Iterator(this); 
         iterator.IsDereferencable(); iterator.AdwanceOne())
@@ -200,19 +630,84 @@ class Hash<Type> {
         System.out.println();
     }
     
-    public static double modf(double fullDouble) {
-        return fullDouble - ((int)fullDouble);
+    public HashFunction GetHashFunction() {
+        return hashFunction;
     }
     
-    public int CalculateHash(String _key) {
-        int i, keySize = _key.length(), X = 0;
-        char[] key = _key.toCharArray();
-        double M = SIZE_OF_TABLE - 1, K = 0.618003;
+    public int CalculateHash(String key) {
+        return IndexFor(hashFunction.Hash(key));
+    }
     
-        for(i = 0; i < keySize; ++i) 
-            X += key[i] * i;
-
-        return (int)(M * modf(K * X)); 
+    private int IndexFor(int hash) {
+        return (hash & 0x7fffffff) % SIZE_OF_TABLE;
+    }
+    
+    public BucketStatistics GetBucketStatistics() {
+        if(storage != null) return storage.GetStatistics();
+        
+        BucketStatistics statistics = new BucketStatistics(SIZE_OF_TABLE);
+        for(int i = 0; i < SIZE_OF_TABLE; i++) {
+            if(element[i] != null)
+                statistics.AddUsedBucket();
+            
+            int cost = 1;
+            for(Element elem = element[i]; elem != null; elem = elem.GetNextElement())
+                statistics.AddEntry(cost++);
+        }
+        return statistics;
+    }
+    
+    //Metrics: operation counters and latencies, and the shape of the table computed when
+    //read; off by default, and then an operation only tests a null field. While they are
+    //on, every change of the table holds the lock of the metrics, which JMX holds to read
+    public void SetMetricsEnabled(boolean enabled) {
+        if(enabled == (metrics != null)) return;
+        
+        if(enabled) {
+            metrics = new HashMetrics(this);
+            return;
+        }
+        try {
+            metrics.Unregister();
+        }
+        catch(JMException e) {
+            //the bean is gone already
+        }
+        //waits for a read in progress; the detached metrics do not read the table again
+        metrics.Detach();
+        metrics = null;
+    }
+    
+    //null while metrics are off
+    public HashMetrics GetMetrics() {
+        return metrics;
+    }
+    
+    //Registers the metrics as pkgclass.hashmap:type=Hash,name=<name>, enabling them first
+    public void RegisterMBean(String name) throws JMException {
+        SetMetricsEnabled(true);
+        metrics.Register("pkgclass.hashmap", "Hash", name);
+    }
+    
+    private void Record(int operation, long start, int operations) {
+        metrics.Record(operation, start, operations);
+    }
+    
+    //Current shape of the table, whether metrics are on or not
+    public HashStatistics GetStatistics() {
+        return new HashStatistics(GetSize(), GetRetainedBytes(), GetBucketStatistics());
+    }
+    
+    //Estimated heap bytes of the table, its entries and keys; values are not counted
+    public long GetRetainedBytes() {
+        if(storage != null) return storage.GetRetainedBytes();
+        
+        long bytes = MemoryEstimate.Array(SIZE_OF_TABLE, MemoryEstimate.REFERENCE);
+        //Element: key, value, prev, next, before, after and the outer Hash are references
+        long elementBytes = MemoryEstimate.Object(7 * MemoryEstimate.REFERENCE + 4 + 4 + 8);
+        for(Element elem = head; elem != null; elem = elem.after)
+            bytes += elementBytes + MemoryEstimate.String(elem.GetKey());
+        return bytes;
     }
 }
 
@@ -309,7 +804,588 @@ public class ClassHashMap {
         else System.out.println("Test error");
     }
     
-    public static void main(String[] args) {
+    public static void testOpenAddressing() {
+        Hash hash = new Hash(16, 0.2, 0.8);
+        
+        for(int i = 0; i < 10; i++) hash.Insert(key[i], valueInt[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 10], valueDouble[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 20], valueChar[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 30], valueString[i]);
+        
+        testAdwanceOne(hash);
+        testRewindOne(hash);
+        testInt(hash);
+        testDouble(hash);
+        testChar(hash);
+        testString(hash);
+        test(hash.GetSize() == 40);
+        
+        for(int i = 0; i < 30; i++) hash.Delete(key[i + 10]);
+        testInt(hash);
+        test(hash.GetSize() == 10);
+        
+        //Рост и сжатие таблицы
+        int count = 200000;
+        for(int i = 0; i < count; i++) hash.Insert("key" + i, i);
+        test(hash.GetSize() == count + 10);
+        testAdwanceOne(hash);
+        
+        Hash.Iterator iter = hash.new Iterator(hash, "key123456");
+        test((Integer)iter.Dereference() == 123456);
+        
+        for(int i = 0; i < count; i++) hash.Delete("key" + i);
+        test(hash.GetSize() == 10);
+        testInt(hash);
+        testRewindOne(hash);
+        
+        //Серии удалённых записей, слитые с обеих сторон, пропускаются целиком
+        hash = new Hash(64, 0.2, 0.8);
+        for(int i = 0; i < 40; i++) hash.Insert(key[i], i);
+        int[] deleted = {7, 5, 9, 6, 8, 0, 1, 13, 12, 38};
+        boolean[] gone = new boolean[40];
+        for(int i = 0; i < deleted.length; i++) {
+            hash.Delete(key[deleted[i]]);
+            gone[deleted[i]] = true;
+        }
+        
+        iter = hash.new Iterator(hash);
+        boolean inOrder = true;
+        for(int i = 0; i < 40; i++)
+            if(!gone[i]) {
+                inOrder &= iter.IsDereferencable() && (Integer)iter.Dereference() == i;
+                iter.AdwanceOne();
+            }
+        test(inOrder && !iter.IsDereferencable());
+        
+        iter.GetRearElement();
+        inOrder = true;
+        for(int i = 39; i >= 0; i--)
+            if(!gone[i]) {
+                inOrder &= iter.IsDereferencable() && (Integer)iter.Dereference() == i;
+                iter.RewindOne();
+            }
+        test(inOrder && !iter.IsDereferencable());
+        
+        //Шаг от записи, удалённой под итератором
+        iter = hash.new Iterator(hash, key[20]);
+        hash.Delete(key[19]);
+        hash.Delete(key[21]);
+        hash.Delete(key[20]);
+        iter.AdwanceOne();
+        test((Integer)iter.Dereference() == 22);
+        iter = hash.new Iterator(hash, key[23]);
+        hash.Delete(key[23]);
+        iter.RewindOne();
+        test((Integer)iter.Dereference() == 22);
+    }
+    
+    public static boolean testOrder(Hash hash, int from, int to) {
+        Hash.Iterator iterator = hash.new Iterator(hash);
+        for(int i = from; i < to; i++, iterator.AdwanceOne())
+            if(!iterator.IsDereferencable() || !iterator.GetKey().equals(key[i])) return false;
+        if(iterator.IsDereferencable()) return false;
+        
+        iterator.GetRearElement();
+        for(int i = to - 1; i >= from; i--, iterator.RewindOne())
+            if(!iterator.IsDereferencable() || !iterator.GetKey().equals(key[i])) return false;
+        return !iterator.IsDereferencable();
+    }
+    
+    public static void testIterationOrder() throws IOException {
+        Hash[] hashes = {new Hash(), new Hash(16, 0.2, 0.8), new Hash(16, null)};
+        
+        for(int h = 0; h < hashes.length; h++) {
+            Hash hash = hashes[h];
+            for(int i = 0; i < 40; i++) hash.Insert(key[i], i);
+            test(testOrder(hash, 0, 40));
+            
+            //Удаление не нарушает порядок остальных ключей
+            for(int i = 0; i < 20; i++) hash.Delete(key[i]);
+            test(testOrder(hash, 20, 40));
+            
+            //Разреженная таблица обходится за время, пропорциональное числу ключей
+            for(int i = 0; i < 100000; i++) hash.Insert("key" + i, i);
+            for(int i = 0; i < 100000; i++) hash.Delete("key" + i);
+            test(testOrder(hash, 20, 40));
+            
+            //Удаление текущей записи при обходе не сбивает итератор, даже когда удалено подряд многое
+            for(int i = 0; i < 20000; i++) hash.Insert("key" + i, i);
+            Hash.Iterator iter = hash.new Iterator(hash);
+            int seen = 0;
+            boolean inOrder = true;
+            for(; iter.IsDereferencable(); iter.AdwanceOne(), seen++) {
+                String current = iter.GetKey();
+                inOrder &= seen < 20 ? current.equals(key[seen + 20]) : current.equals("key" + (seen - 20));
+                if(seen >= 20 && (seen - 20) % 1000 != 0) hash.Delete(current);
+            }
+            test(inOrder && seen == 20020 && hash.GetSize() == 40);
+            iter.GetRearElement();
+            test(iter.GetKey().equals("key19000"));
+            iter.RewindOne();
+            test(iter.GetKey().equals("key18000"));
+            for(int i = 0; i < 20000; i += 1000) hash.Delete("key" + i);
+            test(testOrder(hash, 20, 40));
+        }
+    }
+    
+    public static void testBatch() throws IOException {
+        Hash[] hashes = {new Hash(), new Hash(16, 0.2, 0.8), new Hash(16, null)};
+        int count = 50000;
+        String[] keys = new String[count];
+        Integer[] values = new Integer[count];
+        for(int i = 0; i < count; i++) {
+            keys[i] = "key" + i;
+            values[i] = i;
+        }
+        
+        for(int h = 0; h < hashes.length; h++) {
+            Hash hash = hashes[h];
+            hash.InsertAll(keys, values);
+            test(hash.GetSize() == count);
+            
+            //Повтор ключа в пакете: побеждает последнее значение
+            hash.InsertAll(new String[] {"dup", "dup", "dup"}, new Integer[] {1, 2, 3});
+            Hash.Iterator iter = hash.new Iterator(hash, "dup");
+            test((Integer)iter.Dereference() == 3 && hash.GetSize() == count + 1);
+            
+            //Массивы разной длины отвергаются до вставки
+            boolean rejected = false;
+            try {
+                hash.InsertAll(new String[] {"short1", "short2"}, new Integer[] {1});
+            }
+            catch(IllegalArgumentException e) {
+                rejected = true;
+            }
+            test(rejected && hash.GetSize() == count + 1 && hash.FindElementByKey("short1") == null);
+            
+            Object[] out = new Object[count + 1];
+            String[] query = Arrays.copyOf(keys, count + 1);
+            query[count] = "absent";
+            hash.GetAll(query, out);
+            
+            boolean allFound = out[count] == null;
+            for(int i = 0; i < count; i++)
+                if(!values[i].equals(out[i])) allFound = false;
+            test(allFound);
+            
+            hash.DeleteAll(Arrays.copyOf(keys, count / 2));
+            test(hash.GetSize() == count - count / 2 + 1);
+            hash.GetAll(keys, out);
+            test(out[0] == null && out[count / 2 - 1] == null && values[count / 2].equals(out[count / 2]));
+        }
+    }
+    
+    public static void testMetrics() throws IOException, JMException, InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 0; i < 100; i++)
+            histogram.Add(i < 90 ? 1000 : 100000);
+        test(histogram.GetCount() == 100 && histogram.GetPercentile(0.5) == 1023 && histogram.GetMax() == 100000);
+        test(histogram.GetPercentile(0.99) > 65536 && Math.abs(histogram.GetMean() - 10900) < 1e-9);
+        
+        Hash[] hashes = {new Hash(), new Hash(16, 0.2, 0.8), new Hash(16, null)};
+        for(int h = 0; h < hashes.length; h++) {
+            Hash hash = hashes[h];
+            for(int i = 0; i < 1000; i++)
+                hash.Insert("before" + i, i);
+            test(hash.GetMetrics() == null);
+            
+            hash.SetMetricsEnabled(true);
+            HashMetrics metrics = hash.GetMetrics();
+            for(int i = 0; i < 2000; i++)
+                hash.Insert("key" + i, i);
+            hash.InsertAll(new String[] {"a", "b", "c"}, new Integer[] {1, 2, 3});
+            
+            Hash.Iterator iter = hash.new Iterator(hash);
+            for(int i = 0; i < 500; i++)
+                iter.GetElementByKey("key" + i);
+            for(int i = 0; i < 100; i++)
+                hash.Delete("key" + i);
+            
+            test(metrics.getInsertCount() == 2003 && metrics.getLookupCount() == 500 && metrics.getDeleteCount() == 100);
+            test(metrics.getInsertMaxNanos() >= metrics.getInsertP99Nanos() / 2 && metrics.getInsertMeanNanos() > 0);
+            
+            HashStatistics statistics = hash.GetStatistics();
+            test(statistics.GetEntries() == 2903 && statistics.GetBucketStatistics().GetEntries() == 2903);
+            test(statistics.GetMaxChainLength() >= 1 && statistics.GetAverageChainLength() >= 1);
+            test(statistics.GetRetainedBytes() > 2903 * 8);
+            
+            hash.SetMetricsEnabled(false);
+            hash.Insert("after", 1);
+            test(hash.GetMetrics() == null && metrics.getInsertCount() == 2003);
+            
+            //Байты ключей ведутся вставками и удалениями
+            if(!hash.IsOffHeap()) {
+                long bytes = hash.GetRetainedBytes();
+                for(int i = 0; i < 100; i++)
+                    hash.Insert("extra" + i, i);
+                test(hash.GetRetainedBytes() > bytes);
+                for(int i = 0; i < 100; i++)
+                    hash.Delete("extra" + i);
+                test(hash.GetRetainedBytes() == bytes);
+            }
+            hash.Close();
+        }
+        
+        //JMX: форма таблицы считается при чтении, число записей и байты читаются как есть
+        Hash hash = new Hash();
+        for(int i = 0; i < 100; i++)
+            hash.Insert("key" + i, i);
+        hash.RegisterMBean("test");
+        hash.FindElementByKey("key1");
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = hash.GetMetrics().GetObjectName();
+        test(server.isRegistered(name) && name.getDomain().equals("pkgclass.hashmap"));
+        test(server.getAttribute(name, "Entries").equals(100) && server.getAttribute(name, "LookupCount").equals(1L));
+        test((Integer)server.getAttribute(name, "MaxChainLength") >= 1);
+        hash.Insert("key100", 100);
+        test(server.getAttribute(name, "Entries").equals(101) && (Long)server.getAttribute(name, "RetainedBytes") > 0);
+        
+        //Чтение через JMX во время изменений: обход идёт под той же блокировкой
+        final Hash changing = new Hash(16, 0.2, 0.8);
+        changing.SetMetricsEnabled(true);
+        final HashMetrics reader = changing.GetMetrics();
+        final boolean[] failed = new boolean[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    for(int i = 0; i < 200; i++) {
+                        HashStatistics shape = reader.GetStatistics();
+                        failed[0] |= shape.GetEntries() != shape.GetBucketStatistics().GetEntries();
+                        Thread.sleep(5);
+                    }
+                }
+                catch(InterruptedException | RuntimeException e) {
+                    failed[0] = true;
+                }
+            }
+        };
+        thread.start();
+        for(int round = 0; thread.isAlive(); round++)
+            for(int i = 0; i < 1000; i++) {
+                if(round % 2 == 0) changing.Insert("key" + i, i);
+                else changing.Delete("key" + i);
+            }
+        test(!failed[0]);
+        
+        server.invoke(name, "Reset", null, null);
+        test(hash.GetMetrics().getLookupCount() == 0);
+        hash.SetMetricsEnabled(false);
+        test(!server.isRegistered(name));
+    }
+    
+    public static void testHashFunctions() {
+        HashFunction[] functions = {HashFunction.STRING, HashFunction.STRING_MIX, HashFunction.FNV1A, HashFunction.MURMUR3};
+        
+        for(int f = 0; f < functions.length; f++) {
+            HashFunction function = functions[f];
+            test(function.Hash("word") != function.Hash("wrod") && function.Hash("a") != function.Hash("b"));
+            
+            Hash hash = new Hash(function);
+            for(int i = 0; i < 10; i++) hash.Insert(key[i], valueInt[i]);
+            for(int i = 0; i < 10; i++) hash.Insert(key[i + 10], valueDouble[i]);
+            testInt(hash);
+            testDouble(hash);
+            testAdwanceOne(hash);
+            testRewindOne(hash);
+            test(hash.GetBucketStatistics().GetEntries() == 20);
+            
+            Hash openHash = new Hash(16, 0.2, 0.8, function);
+            for(int i = 0; i < 10; i++) openHash.Insert(key[i], valueInt[i]);
+            testInt(openHash);
+            
+            //Распределение ключей по корзинам
+            String[] keys = new String[10000];
+            for(int i = 0; i < keys.length; i++) keys[i] = "item" + i;
+            BucketStatistics statistics = BucketStatistics.Measure(function, keys, 1000);
+            test(statistics.GetUsedBuckets() > 0.95 * statistics.GetExpectedUsedBuckets());
+        }
+    }
+    
+    public static void testConcurrentHash() throws InterruptedException {
+        final ConcurrentHash<Integer> hash = new ConcurrentHash<Integer>();
+        final int threadCount = 8, count = 20000;
+        Thread[] threads = new Thread[threadCount];
+        
+        for(int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for(int i = 0; i < count; i++) {
+                        hash.Merge("key" + i, 1, Integer::sum);
+                        hash.FindElementByKey("key" + (count - i - 1));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(int t = 0; t < threadCount; t++) threads[t].join();
+        
+        test(hash.GetSize() == count);
+        
+        boolean allMerged = true;
+        for(int i = 0; i < count; i++)
+            if(hash.FindElementByKey("key" + i) != threadCount) allMerged = false;
+        test(allMerged);
+        
+        test(hash.PutIfAbsent("key0", 100) == threadCount);
+        test(hash.PutIfAbsent("new", 100) == null && hash.FindElementByKey("new") == 100);
+        test(hash.Compute("new", (k, v) -> v + 1) == 101);
+        test(hash.Compute("new", (k, v) -> null) == null && !hash.ContainsKey("new"));
+        
+        int size = 0;
+        for(ConcurrentHash.Iterator iterator = hash.new Iterator(hash);
+        iterator.IsDereferencable(); iterator.AdwanceOne())
+            size++;
+        test(size == count);
+        
+        size = 0;
+        ConcurrentHash.Iterator iterator = hash.new Iterator(hash);
+        for(iterator.GetRearElement(); iterator.IsDereferencable(); iterator.RewindOne())
+            size++;
+        test(size == count);
+        
+        iterator.GetElementByKey("key777");
+        test((Integer)iterator.Dereference() == threadCount && iterator.GetKey().equals("key777"));
+        
+        for(int i = 0; i < count; i++) hash.Delete("key" + i);
+        test(hash.GetSize() == 0);
+    }
+    
+    public static void testPrimitiveHash() {
+        IntHash intHash = new IntHash();
+        DoubleHash doubleHash = new DoubleHash(4, Double.NaN, HashFunction.STRING_MIX);
+        LongHash longHash = new LongHash();
+        
+        for(int i = 0; i < 10; i++) intHash.Put(key[i], valueInt[i]);
+        for(int i = 0; i < 10; i++) doubleHash.Put(key[i + 10], valueDouble[i]);
+        
+        boolean allFound = true;
+        for(int i = 0; i < 10; i++)
+            if(intHash.Get(key[i]) != valueInt[i] || doubleHash.Get(key[i + 10]) != valueDouble[i]) allFound = false;
+        test(allFound);
+        test(Double.isNaN(doubleHash.Get("absent")) && intHash.Get("absent") == 0);
+        
+        //Счётчики
+        int count = 100000;
+        for(int round = 0; round < 3; round++)
+            for(int i = 0; i < count; i++) longHash.AddTo("counter" + i, i);
+        test(longHash.GetSize() == count && longHash.Get("counter99999") == 3L * 99999);
+        
+        long sum = 0;
+        for(int slot = longHash.GetFirst(); slot >= 0; slot = longHash.GetNext(slot))
+            sum += longHash.GetValue(slot);
+        test(sum == 3L * count * (count - 1) / 2);
+        
+        for(int i = 0; i < count; i += 2) longHash.Delete("counter" + i);
+        allFound = longHash.GetSize() == count / 2;
+        for(int i = 0; i < count; i++)
+            if(longHash.ContainsKey("counter" + i) != (i % 2 == 1)) allFound = false;
+        test(allFound && longHash.Get("counter99999") == 3L * 99999);
+    }
+    
+    public static void testOffHeap() throws IOException {
+        //Ёмкость сверх предела отвергается сразу, а не переполняет смещения
+        boolean rejected = false;
+        try {
+            new Hash(OffHeapStorage.MAX_ENTRIES + 1, null);
+        }
+        catch(IllegalArgumentException e) {
+            rejected = true;
+        }
+        test(rejected);
+        
+        Hash hash = new Hash(16, null);
+        
+        for(int i = 0; i < 10; i++) hash.Insert(key[i], valueInt[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 10], valueDouble[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 20], valueChar[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 30], valueString[i]);
+        
+        testAdwanceOne(hash);
+        testRewindOne(hash);
+        testInt(hash);
+        testDouble(hash);
+        testChar(hash);
+        test(hash.GetSize() == 40);
+        
+        Hash.Iterator iter = hash.new Iterator(hash, "прощайте");
+        test(iter.Dereference().equals("in") && iter.GetKey().equals("прощайте"));
+        
+        //Одиночный суррогат читается тем же, что и записан
+        hash.Insert("x\uDBFFy", 7);
+        iter.GetElementByKey("x\uDBFFy");
+        test(iter.GetKey().equals("x\uDBFFy") && (Integer)iter.Dereference() == 7);
+        hash.Delete("x\uDBFFy");
+        
+        //Перезапись значением другого размера и удаление
+        hash.Insert("word", "long string value");
+        iter.GetElementByKey("word");
+        test(iter.Dereference().equals("long string value"));
+        
+        int count = 100000;
+        for(int i = 0; i < count; i++) hash.Insert("key" + i, (long)i);
+        for(int i = 0; i < count; i += 2) hash.Delete("key" + i);
+        test(hash.GetSize() == 40 + count / 2);
+        iter.GetElementByKey("key4321");
+        test((Long)iter.Dereference() == 4321L);
+        iter.GetElementByKey("key4320");
+        test(!iter.IsDereferencable());
+        
+        //Файл переживает перезапуск
+        File file = File.createTempFile("hash", ".store");
+        file.delete();
+        
+        Hash mapped = new Hash(16, file.getPath());
+        for(int i = 0; i < 10; i++) mapped.Insert(key[i + 30], valueString[i]);
+        for(int i = 0; i < count; i++) mapped.Insert("key" + i, i);
+        mapped.Delete("key0");
+        mapped.Close();
+        
+        Hash reopened = new Hash(16, file.getPath());
+        test(reopened.GetSize() == 10 + count - 1);
+        iter = reopened.new Iterator(reopened, "key99999");
+        test((Integer)iter.Dereference() == 99999);
+        iter.GetElementByKey("key0");
+        test(!iter.IsDereferencable());
+        iter.GetElementByKey(key[35]);
+        test(iter.Dereference().equals(valueString[5]));
+        reopened.Close();
+        file.delete();
+    }
+    
+    public static void testSnapshot() throws IOException {
+        Hash hash = new Hash();
+        for(int i = 0; i < 10; i++) hash.Insert(key[i], valueInt[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 10], valueDouble[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 20], valueChar[i]);
+        for(int i = 0; i < 10; i++) hash.Insert(key[i + 30], valueString[i]);
+        
+        File file = File.createTempFile("hash", ".snapshot");
+        hash.Save(file.getPath());
+        
+        Hash loaded = Hash.Load(file.getPath());
+        test(loaded.GetSize() == 40 && loaded.IsOpenAddressing());
+        testInt(loaded);
+        testDouble(loaded);
+        testChar(loaded);
+        testAdwanceOne(loaded);
+        
+        Hash.Iterator iter = loaded.new Iterator(loaded, "кириллицей");
+        test(iter.Dereference().equals(valueString[0]));
+        
+        //Большой снимок
+        int count = 300000;
+        for(int i = 0; i < count; i++) loaded.Insert("key" + i, i % 2 == 0 ? (Object)i : (Object)("value" + i));
+        loaded.Save(file.getPath());
+        
+        Hash reloaded = Hash.Load(file.getPath());
+        test(reloaded.GetSize() == count + 40);
+        iter = reloaded.new Iterator(reloaded, "key123457");
+        test(iter.Dereference().equals("value123457"));
+        iter.GetElementByKey("key123456");
+        test((Integer)iter.Dereference() == 123456);
+        
+        //Одиночный суррогат в ключе и значении переживает сохранение без замены
+        String lone = "a\uD800b", pair = "\uD83D\uDE00";
+        Hash surrogates = new Hash(16, 0.1, 0.75, HashFunction.FNV1A);
+        surrogates.Insert(lone, pair + "\uDC00");
+        surrogates.Insert(pair, 1);
+        surrogates.Save(file.getPath());
+        
+        Hash restored = Hash.Load(file.getPath());
+        test(restored.GetHashFunction() == HashFunction.FNV1A);
+        iter = restored.new Iterator(restored, lone);
+        test(iter.GetKey().equals(lone) && iter.Dereference().equals(pair + "\uDC00"));
+        iter.GetElementByKey(pair);
+        test((Integer)iter.Dereference() == 1);
+        test(Hash.Load(file.getPath(), HashFunction.MURMUR3).GetHashFunction() == HashFunction.MURMUR3);
+        file.delete();
+    }
+    
+    public static void testCache() throws InterruptedException {
+        final int[] evicted = new int[2];
+        EvictionListener listener = new EvictionListener() {
+            public void OnEviction(String key, Object value, EvictionListener.Cause cause) {
+                evicted[cause == EvictionListener.Cause.SIZE ? 0 : 1]++;
+            }
+        };
+        
+        Hash hash = new Hash();
+        hash.SetMaximumSize(10);
+        hash.SetEvictionListener(listener);
+        
+        for(int i = 0; i < 10; i++) hash.Insert(key[i], valueInt[i]);
+        Hash.Iterator iter = hash.new Iterator(hash, key[0]);
+        
+        //Вытесняется самый давно использованный ключ
+        hash.Insert(key[10], valueDouble[0]);
+        test(hash.GetSize() == 10 && evicted[0] == 1);
+        iter.GetElementByKey(key[1]);
+        test(!iter.IsDereferencable());
+        iter.GetElementByKey(key[0]);
+        test((Integer)iter.Dereference() == valueInt[0]);
+        
+        CacheStatistics statistics = hash.GetCacheStatistics();
+        test(statistics.GetHits() == 2 && statistics.GetMisses() == 1 && statistics.GetEvictions() == 1);
+        
+        //Пакетный поиск считает каждое обращение один раз
+        Object[] found = new Object[2];
+        hash.GetAll(new String[] {key[0], key[1]}, found);
+        statistics = hash.GetCacheStatistics();
+        test(found[0] != null && found[1] == null && statistics.GetHits() == 3 && statistics.GetMisses() == 2);
+        testAdwanceOne(hash);
+        testRewindOne(hash);
+        
+        //Ограничение по весу
+        Hash weighted = new Hash();
+        weighted.SetMaximumWeight(100, new Weigher() {
+            public int Weigh(String key, Object value) { return ((String)value).length(); }
+        });
+        for(int i = 0; i < 1000; i++) weighted.Insert("key" + i, "value" + i);
+        test(weighted.GetTotalWeight() <= 100 && weighted.GetSize() == 100 / 8);
+        
+        //Частотный допуск: частые ключи не вытесняются потоком новых
+        Hash frequent = new Hash();
+        frequent.SetMaximumSize(100);
+        frequent.SetFrequencyAdmission(true);
+        for(int round = 0; round < 5; round++)
+            for(int i = 0; i < 100; i++) {
+                frequent.Insert("hot" + i, i);
+                frequent.FindElementByKey("hot" + i);
+            }
+        for(int i = 0; i < 10000; i++) {
+            frequent.Insert("cold" + i, i);
+            frequent.FindElementByKey("hot" + i % 100);
+        }
+        
+        int hot = 0;
+        for(int i = 0; i < 100; i++)
+            if(frequent.FindElementByKey("hot" + i) != null) hot++;
+        test(hot > 90 && frequent.GetSize() == 100);
+        
+        //Время жизни
+        Hash expiring = new Hash();
+        expiring.SetExpireAfterWrite(50, TimeUnit.MILLISECONDS);
+        expiring.SetEvictionListener(listener);
+        for(int i = 0; i < 10; i++) expiring.Insert(key[i], valueInt[i]);
+        testInt(expiring);
+        Thread.sleep(100);
+        expiring.Insert(key[10], valueDouble[0]);
+        iter = expiring.new Iterator(expiring, key[0]);
+        test(!iter.IsDereferencable() && expiring.GetSize() == 10);
+        expiring.CleanUp();
+        test(expiring.GetSize() == 1 && evicted[1] == 10 && expiring.GetCacheStatistics().GetExpirations() == 10);
+        
+        //Время жизни, включённое после вставки, отсчитывается от включения
+        Hash late = new Hash();
+        for(int i = 0; i < 10; i++) late.Insert(key[i], valueInt[i]);
+        late.SetExpireAfterWrite(1, TimeUnit.MINUTES);
+        testInt(late);
+        late.CleanUp();
+        test(late.GetSize() == 10 && late.GetCacheStatistics().GetExpirations() == 0);
+    }
+    
+    public static void main(String[] args) throws InterruptedException, IOException, JMException {
         Hash hash = new Hash();
         
         //Тесты на методы Insert, Delete, GetSize, Print
@@ -359,5 +1435,35 @@ public class ClassHashMap {
         
         testInt(hash);
         test(hash.GetSize() == 10);
+        
+        //Тесты для открытой адресации
+        testOpenAddressing();
+        
+        //Тесты хеш-функций
+        testHashFunctions();
+        
+        //Тесты на порядок обхода
+        testIterationOrder();
+        
+        //Тесты пакетных операций
+        testBatch();
+        
+        //Тесты для многопоточной таблицы
+        testConcurrentHash();
+        
+        //Тесты для таблиц с примитивными значениями
+        testPrimitiveHash();
+        
+        //Тесты для хранения вне кучи
+        testOffHeap();
+        
+        //Тесты на сохранение и загрузку снимка
+        testSnapshot();
+        
+        //Тесты режима кэша
+        testCache();
+        
+        //Тесты метрик
+        testMetrics();
     }
 }
@@ -1,46 +1,33 @@
 
 package classtrie;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import metrics.OperationMetrics;
+
 class Trie<Type> {
-    private static final int LINK_LIMIT = 256;
-    private Node root;
+    private TrieNode<Type> root;
     private int size;
-    
-    private class Node<Type> {
-        private Node parentNode;
-        private Node[] link;
-        private char[] key;
-        private Type value;
-    
-        Node(Node parent, String _key, Type _value) {
-            parentNode = parent;
-            link = new Node[LINK_LIMIT];
-            key = _key.toCharArray();
-            value = _value;
-        }
-    
-        public void SetLink(int index, Node child)  { link[index] = child; }
-        public void SetValue(Type _value)           { value = _value; }
-        public void SetKey(String _key)             { key = _key.toCharArray(); }
-        public void SetParentNode(Node _parent)     { parentNode = _parent; }
-        public Type GetValue()                      { return value; }
-        private char[] GetPrefix()                  { return key; }
-        public Node GetParentNode()                 { return parentNode; }
-        public Node GetChildNodeByLink(int index)   { return link[index]; }
-        public String GetKey() {
-            String fullKey = "";
-            Node iter = this; 
-            
-            while(iter != root) {
-                fullKey += iter.GetPrefix().toString();
-                iter = iter.GetParentNode();
-            }
-            return fullKey;
-        }
-    }    
+    //null while metrics are off
+    private TrieMetrics metrics;
     
     public Trie() {
-        root = new Node(null, "", null);
+        root = new TrieNode<Type>(null, new char[0], 0, 0, null);
         size = 0;
     }
     
@@ -48,148 +35,716 @@ class Trie<Type> {
         return size;
     }
     
-    private Node GetChildNodeWithIdenticalKey(Node node, char _key, int repeatCount) {
-        for(int j = repeatCount; j < node.GetPrefix().length; j++) 
-            if(node.GetPrefix()[j] == _key) 
-                return node;
+    //Builds a trie from entries sorted by key in one pass. The nodes of the rightmost path
+    //wait on a stack; a node is popped once the next key leaves it, and only then is
+    //its key known, so every node is created once with its final key and never split
+    public static <Type> Trie<Type> BuildFromSorted(java.util.Iterator<Map.Entry<String, Type>> entries) {
+        Trie<Type> trie = new Trie<Type>();
+        TrieNode<Type>[] nodes = new TrieNode[16];
+        String[] samples = new String[16];
+        int depth = 1;
+        String previous = null;
         
-        for(int i = 0; i < LINK_LIMIT; i++) {
-            if(node.GetChildNodeByLink(i) != null) 
-                if(node.GetChildNodeByLink(i).GetPrefix()[0] == _key) 
-                    return node.GetChildNodeByLink(i);
-        }
-        return null;
-    }
-    
-    public void Insert(String _key, Type value) {
-        int repeatCount = 1, keySize = _key.length();
-        char[] key = _key.toCharArray();
-        Node iter, node = root;
+        nodes[0] = trie.root;
+        samples[0] = "";
         
-        for(int i = 0; i < keySize; i++) {
-            String lastKey = "", prefixKey = "", secondLastKey = "";
-            
-            iter = GetChildNodeWithIdenticalKey(node, key[i], repeatCount);
+        while(entries.hasNext()) {
+            Map.Entry<String, Type> entry = entries.next();
+            String key = entry.getKey();
+            if(entry.getValue() == null) continue;
             
-            if(iter == node) { 
-                repeatCount++; 
+            int common = 0;
+            if(previous != null) {
+                int length = Math.min(previous.length(), key.length());
+                while(common < length && previous.charAt(common) == key.charAt(common))
+                    common++;
+                if(common == key.length() || (common < previous.length() && previous.charAt(common) > key.charAt(common)))
+                    throw new IllegalArgumentException("Keys are not sorted: \"" + previous + "\" before \"" + key + "\"");
             }
-            else repeatCount = 1;
             
-
-            if(iter == null) {
-                for(int j = i; j < keySize; j++) lastKey += key[j];
-                            
-                for(int j = i; j < node.GetPrefix().length; j++) 
-                    secondLastKey += node.GetPrefix()[j];
+            //the nodes deeper than the common part are complete; a branch at the common
+            //depth is added between them when no node ends there
+            while(nodes[depth - 1].GetDepth() > common) {
+                TrieNode<Type> node = nodes[--depth];
+                String sample = samples[depth];
                 
-                if(secondLastKey.equals("")) {
-                    node.SetLink((int)key[i], new Node(node, lastKey, value));
-                }
-                else {
-                    for(int j = 0; j < i; j++) 
-                        prefixKey += node.GetPrefix()[j];
-                    
-                    node.SetKey(secondLastKey);
-                    Node med = new Node(node.GetParentNode(), prefixKey, null);
-                    Node newNode = new Node(med, lastKey, value);
-                    med.SetLink(node.GetPrefix()[0], node);
-                    med.SetLink(newNode.GetPrefix()[0], newNode);
-                    node.SetParentNode(med);
-                    med.GetParentNode().SetLink(med.GetPrefix()[0], med);
+                if(nodes[depth - 1].GetDepth() < common) {
+                    nodes[depth] = new TrieNode<Type>(common, null);
+                    samples[depth++] = sample;
                 }
-                size++;
-                return;
+                Attach(nodes[depth - 1], node, sample);
+            }
+            
+            if(key.length() == 0) {
+                trie.root.SetValue(entry.getValue());
+                trie.root.SetTotal(trie.root.GetTotal() + 1);
             }
             else {
-                if(i == keySize - 1) {
-                    for(int j = repeatCount; j < iter.GetPrefix().length; j++)
-                        lastKey += iter.GetPrefix()[j];
-                    
-                    for(int j = 0; j <= repeatCount - 1; j++)
-                        prefixKey += iter.GetPrefix()[j];
-                    
-                    iter.SetLink((int)iter.GetPrefix()[0], new Node(iter, lastKey, iter.GetValue()));
-                    iter.SetKey(prefixKey);
-                    iter.SetValue(value);
-                    size++;
-                    return;
+                if(depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length << 1);
+                    samples = Arrays.copyOf(samples, samples.length << 1);
                 }
-                node = iter;
+                nodes[depth] = new TrieNode<Type>(key.length(), entry.getValue());
+                samples[depth++] = key;
             }
+            trie.size++;
+            previous = key;
         }
+        
+        while(depth > 1) {
+            depth--;
+            Attach(nodes[depth - 1], nodes[depth], samples[depth]);
+        }
+        return trie;
     }
     
-    private boolean IsHaveChilds(Node node) {
-        for(int i = 0; i < LINK_LIMIT; i++)
-            if(node.GetChildNodeByLink(i) != null)
-                return true;
+    //Gives the completed node its key, the sample chars from the parent end to its own
+    private static <Type> void Attach(TrieNode<Type> parent, TrieNode<Type> node, String sample) {
+        char[] key = new char[node.GetDepth() - parent.GetDepth()];
+        sample.getChars(parent.GetDepth(), node.GetDepth(), key, 0);
         
-        return false;
-    }    
+        node.SetKey(key, 0, key.length);
+        node.SetParentNode(parent);
+        parent.SetChild(node);
+        parent.SetTotal(parent.GetTotal() + node.GetTotal());
+    }
     
-    private int GetIndex(Node node) {
-        return (int)node.GetPrefix()[0];
+    //Parallel BuildFromSorted: the entries are split by the first char after the prefix
+    //common to all the keys, which is the first char unless every key shares a prefix,
+    //and the parts are built on the fork-join pool, then hung under one node
+    public static <Type> Trie<Type> BuildFromSortedParallel(final List<Map.Entry<String, Type>> entries) {
+        if(entries.size() < 2) return BuildFromSorted(entries.iterator());
+        
+        String first = entries.get(0).getKey(), last = entries.get(entries.size() - 1).getKey();
+        int common = 0;
+        while(common < Math.min(first.length(), last.length()) && first.charAt(common) == last.charAt(common))
+            common++;
+        
+        //only the first key may end at the common prefix; another one is a repeat or out of order
+        final List<int[]> parts = new java.util.ArrayList<int[]>();
+        int from = first.length() == common ? 1 : 0;
+        if(entries.get(from).getKey().length() == common)
+            throw new IllegalArgumentException("Keys are not sorted or repeat at " + from);
+        
+        for(int i = from + 1; i <= entries.size(); i++) {
+            if(i < entries.size()) {
+                if(entries.get(i).getKey().length() <= common)
+                    throw new IllegalArgumentException("Keys are not sorted or repeat at " + i);
+                
+                char c = entries.get(i).getKey().charAt(common), previous = entries.get(i - 1).getKey().charAt(common);
+                if(c < previous) throw new IllegalArgumentException("Keys are not sorted at " + i);
+                if(c == previous) continue;
+            }
+            parts.add(new int[] {from, i});
+            from = i;
+        }
+        
+        final Trie<Type>[] built = new Trie[parts.size()];
+        java.util.stream.IntStream.range(0, parts.size()).parallel().forEach(i ->
+            built[i] = BuildFromSorted(entries.subList(parts.get(i)[0], parts.get(i)[1]).iterator()));
+        
+        Trie<Type> trie = new Trie<Type>();
+        TrieNode<Type> top = trie.root;
+        if(common > 0) {
+            top = new TrieNode<Type>(common, null);
+            Attach(trie.root, top, first);
+        }
+        if(first.length() == common && entries.get(0).getValue() != null) {
+            top.SetValue(entries.get(0).getValue());
+            trie.AddTotal(top, 1);
+            trie.size++;
+        }
+        
+        //each part holds one subtree below its root: it loses the common prefix and moves under the top
+        for(int i = 0; i < built.length; i++) {
+            TrieNode<Type> node = built[i].root.NextChild(-1);
+            if(node == null) continue;
+            
+            node.SetKey(node.GetPrefix(), node.GetOffset() + common, node.GetLength() - common);
+            node.SetParentNode(top);
+            top.SetChild(node);
+            trie.AddTotal(top, node.GetTotal());
+            trie.size += built[i].size;
+        }
+        
+        //a top with no values below it, all of them null, is dropped; any other top goes
+        //through Compact, which merges it into its only child when it has no value
+        if(top != trie.root && top.GetTotal() == 0) trie.root.RemoveChild(top.GetLabel());
+        else trie.Compact(top);
+        return trie;
     }
     
-    private void DeleteNode(Node node) {
-        Node parent = node.GetParentNode();
-        if(parent == null) return;
+    //Length of the common part of the node key and the key from the position
+    private static int Match(TrieNode node, CharSequence key, int position) {
+        char[] prefix = node.GetPrefix();
+        int offset = node.GetOffset(), length = Math.min(node.GetLength(), key.length() - position);
+        int j = 0;
         
-        node.SetValue(null);
-        parent.SetLink(GetIndex(node), null);
-        if(!IsHaveChilds(parent)) {
-            DeleteNode(parent);
+        while(j < length && prefix[offset + j] == key.charAt(position + j))
+            j++;
+        return j;
+    }
+    
+    //A null value is the absence of the key, so inserting null deletes it
+    public void Insert(CharSequence key, Type value) {
+        if(metrics == null) {
+            Put(key, value);
+            return;
+        }
+        
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            Put(key, value);
+            Record(OperationMetrics.INSERT, start);
+        }
+    }
+    
+    private void Put(CharSequence key, Type value) {
+        if(value == null) {
+            Remove(key);
+            return;
+        }
+        
+        TrieNode<Type> node = root;
+        int position = 0;
+        
+        while(position < key.length()) {
+            TrieNode<Type> child = node.GetChild(key.charAt(position));
+            
+            if(child == null) {
+                //the only copy of the key an insert makes: the rest of it, as the new leaf
+                char[] rest = new char[key.length() - position];
+                for(int i = 0; i < rest.length; i++)
+                    rest[i] = key.charAt(position + i);
+                
+                node.SetChild(new TrieNode<Type>(node, rest, 0, rest.length, value));
+                AddTotal(node, 1);
+                size++;
+                return;
+            }
+            
+            int j = Match(child, key, position);
+            
+            if(j < child.GetLength()) {
+                //the key leaves the child key in the middle: split the child there
+                char[] prefix = child.GetPrefix();
+                int offset = child.GetOffset();
+                
+                TrieNode<Type> med = new TrieNode<Type>(node, prefix, offset, j, null);
+                child.SetKey(prefix, offset + j, child.GetLength() - j);
+                child.SetParentNode(med);
+                med.SetChild(child);
+                med.SetTotal(child.GetTotal());
+                node.SetChild(med);
+                child = med;
+            }
+            position += j;
+            node = child;
+        }
+        
+        if(node.GetValue() == null) {
+            AddTotal(node, 1);
+            size++;
         }
+        node.SetValue(value);
     }
     
-    public void Delete(String key) {
-        Node node = FindElementByKey(key);
+    private void AddTotal(TrieNode<Type> node, int delta) {
+        for(; node != null; node = node.GetParentNode())
+            node.SetTotal(node.GetTotal() + delta);
+    }
+    
+    public void Delete(CharSequence key) {
+        if(metrics == null) {
+            Remove(key);
+            return;
+        }
         
-        if(node == null) return;
+        synchronized(metrics) {
+            long start = System.nanoTime();
+            Remove(key);
+            Record(OperationMetrics.DELETE, start);
+        }
+    }
+    
+    private void Remove(CharSequence key) {
+        TrieNode<Type> node = Find(key);
+        if(node == null || node.GetValue() == null) return;
         
-        if(!IsHaveChilds(node)) 
-            DeleteNode(node);
-        else 
-            node.SetValue(null);
+        node.SetValue(null);
+        AddTotal(node, -1);
         size--;
+        
+        if(node.GetChildCount() == 0 && node != root) {
+            TrieNode<Type> parent = node.GetParentNode();
+            parent.RemoveChild(node.GetLabel());
+            node = parent;
+        }
+        Compact(node);
     }
     
-    private Node FindElementByKey(String _key) {
-        int repeatCount = 1, keySize = _key.length();
-        char[] key = _key.toCharArray();
-        Node iter, node = root;
+    //A node without a value and with a single child is merged into the child
+    private void Compact(TrieNode<Type> node) {
+        if(node == root || node.GetValue() != null || node.GetChildCount() != 1) return;
         
-        for(int i = 0; i < keySize; i++) {
-            iter = GetChildNodeWithIdenticalKey(node, key[i], repeatCount);
+        TrieNode<Type> child = node.NextChild(-1);
+        char[] merged = new char[node.GetLength() + child.GetLength()];
+        System.arraycopy(node.GetPrefix(), node.GetOffset(), merged, 0, node.GetLength());
+        System.arraycopy(child.GetPrefix(), child.GetOffset(), merged, node.GetLength(), child.GetLength());
+        
+        child.SetKey(merged, 0, merged.length);
+        child.SetParentNode(node.GetParentNode());
+        node.GetParentNode().SetChild(child);
+    }
+    
+    private TrieNode<Type> FindElementByKey(CharSequence key) {
+        if(metrics == null) return Find(key);
+        
+        //only reads the tree, so it needs no lock
+        long start = System.nanoTime();
+        TrieNode<Type> node = Find(key);
+        Record(OperationMetrics.LOOKUP, start);
+        return node;
+    }
+    
+    private TrieNode<Type> Find(CharSequence key) {
+        TrieNode<Type> node = root;
+        int position = 0;
+        
+        while(position < key.length()) {
+            node = node.GetChild(key.charAt(position));
+            if(node == null) return null;
             
-            if(iter == node) repeatCount++;
-            else repeatCount = 1;
+            if(Match(node, key, position) < node.GetLength()) return null;
+            position += node.GetLength();
+        }
+        return node;
+    }
+    
+    //Highest node whose key starts with the prefix, or null
+    private TrieNode<Type> FindPrefix(CharSequence prefix) {
+        TrieNode<Type> node = root;
+        int position = 0;
+        
+        while(position < prefix.length()) {
+            node = node.GetChild(prefix.charAt(position));
+            if(node == null) return null;
             
-            if(iter == null) return null;
-            else node = iter;
+            int j = Match(node, prefix, position);
+            if(j < node.GetLength() && position + j < prefix.length()) return null;
+            position += node.GetLength();
+        }
+        return node;
+    }
+    
+    //Next node in key order after the subtree of the node, not leaving the subtree of top
+    private TrieNode<Type> Skip(TrieNode<Type> node, TrieNode<Type> top) {
+        for(; node != top; node = node.GetParentNode()) {
+            TrieNode<Type> next = node.GetParentNode().NextChild(node.GetLabel());
+            if(next != null) return next;
         }
+        return null;
+    }
+    
+    //Next node in key order: a key comes before all the keys it is a prefix of
+    private TrieNode<Type> Successor(TrieNode<Type> node, TrieNode<Type> top) {
+        TrieNode<Type> child = node.NextChild(-1);
+        return child != null ? child : Skip(node, top);
+    }
+    
+    //First node holding a value, starting from the node in key order
+    private TrieNode<Type> FirstValue(TrieNode<Type> node, TrieNode<Type> top) {
+        while(node != null && node.GetValue() == null)
+            node = Successor(node, top);
         return node;
     }
     
+    //Previous node in key order: the deepest last node of the previous sibling, or the parent
+    private TrieNode<Type> Predecessor(TrieNode<Type> node) {
+        if(node == root) return null;
+        
+        TrieNode<Type> previous = node.GetParentNode().PrevChild(node.GetLabel());
+        if(previous == null) return node.GetParentNode();
+        return Last(previous);
+    }
+    
+    private TrieNode<Type> Last(TrieNode<Type> node) {
+        for(TrieNode<Type> child = node; child != null; child = node.PrevChild(Character.MAX_VALUE + 1))
+            node = child;
+        return node;
+    }
+    
+    private TrieNode<Type> LastValue(TrieNode<Type> node) {
+        while(node != null && node.GetValue() == null)
+            node = Predecessor(node);
+        return node;
+    }
+    
+    //Node holding the key of the given rank in key order, found through the subtree counters
+    private TrieNode<Type> Select(int rank) {
+        TrieNode<Type> node = root;
+        
+        while(true) {
+            if(node.GetValue() != null) {
+                if(rank == 0) return node;
+                rank--;
+            }
+            
+            TrieNode<Type> child = node.NextChild(-1);
+            while(rank >= child.GetTotal()) {
+                rank -= child.GetTotal();
+                child = node.NextChild(child.GetLabel());
+            }
+            node = child;
+        }
+    }
+    
+    //First node holding a key not less than the given one, or null
+    private TrieNode<Type> Ceiling(CharSequence key) {
+        TrieNode<Type> node = root;
+        int position = 0;
+        
+        while(position < key.length()) {
+            char c = key.charAt(position);
+            TrieNode<Type> child = node.GetChild(c);
+            
+            if(child == null) {
+                TrieNode<Type> next = node.NextChild(c);
+                return FirstValue(next != null ? next : Skip(node, root), root);
+            }
+            
+            int j = Match(child, key, position);
+            
+            if(j < child.GetLength()) {
+                //the key ends inside the child key or sorts before it: the whole subtree is greater
+                if(position + j == key.length() || child.GetPrefix()[child.GetOffset() + j] > key.charAt(position + j))
+                    return FirstValue(child, root);
+                return FirstValue(Skip(child, root), root);
+            }
+            position += j;
+            node = child;
+        }
+        return FirstValue(node, root);
+    }
+    
+    public int CountWithPrefix(CharSequence prefix) {
+        TrieNode<Type> node = FindPrefix(prefix);
+        return node == null ? 0 : node.GetTotal();
+    }
+    
+    //At most limit pairs (all when limit is negative) with keys starting with the prefix,
+    //in key order; nodes are visited as the scan goes, so the cost follows the output
+    public Scan PrefixScan(CharSequence prefix, int limit) {
+        TrieNode<Type> top = FindPrefix(prefix);
+        return new Scan(top == null ? null : FirstValue(top, top), top, null, limit);
+    }
+    
+    //Pairs with keys from from (inclusive) to to (exclusive) in key order
+    public Scan Range(CharSequence from, CharSequence to) {
+        TrieNode<Type> first = Compare(from, to) < 0 ? Ceiling(from) : null;
+        return new Scan(first, root, Ceiling(to), -1);
+    }
+    
+    private static int Compare(CharSequence a, CharSequence b) {
+        int length = Math.min(a.length(), b.length());
+        for(int i = 0; i < length; i++)
+            if(a.charAt(i) != b.charAt(i))
+                return a.charAt(i) - b.charAt(i);
+        return a.length() - b.length();
+    }
+    
+    //Pairs in key order. The key is kept in one buffer and only the chars below the
+    //common ancestor with the previous key are rewritten, so walking with AdwanceOne,
+    //Dereference and GetKey allocates nothing; next() allocates its entry
+    public class Scan implements java.util.Iterator<Map.Entry<String, Type>> {
+        private TrieNode<Type> node, top, end;
+        private int limit;
+        private StringBuilder key = new StringBuilder();
+        
+        Scan(TrieNode<Type> _node, TrieNode<Type> _top, TrieNode<Type> _end, int _limit) {
+            node = _node;
+            top = _top;
+            end = _end;
+            limit = _limit;
+            if(node != null) WriteKey(node, key);
+        }
+        
+        public boolean IsDereferencable() {
+            return node != null && node != end && limit != 0;
+        }
+        
+        //A node visited in key order hangs below the previous one or one of its
+        //ancestors, so the buffer already holds the key up to its parent
+        public void AdwanceOne() {
+            node = Successor(node, top);
+            for(; node != null; node = Successor(node, top)) {
+                key.setLength(node.GetParentNode().GetDepth());
+                key.append(node.GetPrefix(), node.GetOffset(), node.GetLength());
+                if(node.GetValue() != null) break;
+            }
+            limit--;
+        }
+        
+        public Type Dereference()               { return node.GetValue(); }
+        //Valid until the next step of the scan
+        public CharSequence GetKey()            { return key; }
+        public void GetKey(StringBuilder sink)  { sink.setLength(0); sink.append(key); }
+        
+        public boolean hasNext() {
+            return IsDereferencable();
+        }
+        
+        public Map.Entry<String, Type> next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            
+            Map.Entry<String, Type> entry = new AbstractMap.SimpleImmutableEntry<String, Type>(key.toString(), node.GetValue());
+            AdwanceOne();
+            return entry;
+        }
+    }
+    
+    //All the pairs in key order, split by rank so a fork-join pool gets even halves;
+    //the trie must not change while the spliterator is in use
+    public Spliterator<Map.Entry<String, Type>> Spliterator() {
+        return new ScanSpliterator(new Scan(FirstValue(root, root), root, null, size), 0);
+    }
+    
+    private class ScanSpliterator implements Spliterator<Map.Entry<String, Type>> {
+        private Scan scan;
+        //rank of the current key of the scan; the part ends scan.limit keys later
+        private int rank;
+        
+        ScanSpliterator(Scan _scan, int _rank) {
+            scan = _scan;
+            rank = _rank;
+        }
+        
+        public boolean tryAdvance(Consumer<? super Map.Entry<String, Type>> action) {
+            if(!scan.hasNext()) return false;
+            action.accept(scan.next());
+            rank++;
+            return true;
+        }
+        
+        //The first half is split off, the middle key is found by Select in O(depth)
+        public Spliterator<Map.Entry<String, Type>> trySplit() {
+            int remaining = scan.limit, half = remaining / 2;
+            if(half == 0) return null;
+            
+            Scan first = scan;
+            first.limit = half;
+            ScanSpliterator part = new ScanSpliterator(first, rank);
+            
+            rank += half;
+            scan = new Scan(Select(rank), root, null, remaining - half);
+            return part;
+        }
+        
+        public long estimateSize() {
+            return scan.limit;
+        }
+        
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+    
+    //Compiles the trie into a read-only FrozenTrie; later changes to this trie do not reach it
+    public FrozenTrie<Type> Freeze() {
+        int bytes = 0;
+        for(TrieNode<Type> node = root; node != null; node = Successor(node, root))
+            bytes += FrozenTrie.RecordSize(node.GetLength(), node.GetChildCount());
+        
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(FrozenTrie.BYTE_ORDER);
+        Object[] values = new Object[size];
+        int position = 0, valueCount = 0, depth = 0;
+        
+        //depth-first with an explicit stack: the node, its record position, the label of
+        //the last child written and the number of children written
+        TrieNode<Type>[] nodes = new TrieNode[16];
+        int[] positions = new int[16], lastLabels = new int[16], written = new int[16];
+        char[] labels = new char[16];
+        
+        for(TrieNode<Type> node = root; node != null; ) {
+            int count = node.GetChildCount(), i = 0;
+            if(count > labels.length) labels = new char[count];
+            for(TrieNode<Type> child = node.NextChild(-1); child != null; child = node.NextChild(child.GetLabel()))
+                labels[i++] = child.GetLabel();
+            
+            int value = -1;
+            if(node.GetValue() != null) {
+                value = valueCount++;
+                values[value] = node.GetValue();
+            }
+            FrozenTrie.WriteRecord(buffer, position, node.GetPrefix(), node.GetOffset(), node.GetLength(),
+                value, node.GetTotal(), labels, count);
+            
+            if(depth > 0)
+                buffer.putInt(FrozenTrie.ChildSlot(positions[depth - 1], nodes[depth - 1].GetChildCount(), written[depth - 1]++), position);
+            
+            if(depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth << 1);
+                positions = Arrays.copyOf(positions, depth << 1);
+                lastLabels = Arrays.copyOf(lastLabels, depth << 1);
+                written = Arrays.copyOf(written, depth << 1);
+            }
+            nodes[depth] = node;
+            positions[depth] = position;
+            lastLabels[depth] = -1;
+            written[depth++] = 0;
+            position += FrozenTrie.RecordSize(node.GetLength(), count);
+            
+            //next node to write: the next child of the deepest node that has one left
+            node = null;
+            while(depth > 0 && node == null) {
+                node = nodes[depth - 1].NextChild(lastLabels[depth - 1]);
+                if(node == null) depth--;
+                else lastLabels[depth - 1] = node.GetLabel();
+            }
+        }
+        return new FrozenTrie<Type>(buffer, 0, values);
+    }
+    
+    //Writes the frozen form to a file that FrozenTrie.Open maps back
+    public void Save(String path) throws IOException {
+        Freeze().Save(path);
+    }
+    
+    //Writes the key of the node over the sink contents; no allocation once the sink is big enough
+    private void WriteKey(TrieNode<Type> node, StringBuilder sink) {
+        sink.setLength(node.GetDepth());
+        for(; node != root; node = node.GetParentNode()) {
+            char[] prefix = node.GetPrefix();
+            int position = node.GetDepth() - node.GetLength(), offset = node.GetOffset();
+            for(int i = 0; i < node.GetLength(); i++)
+                sink.setCharAt(position + i, prefix[offset + i]);
+        }
+    }
+    
+    private String GetKey(TrieNode<Type> node) {
+        char[] key = new char[node.GetDepth()];
+        for(; node != root; node = node.GetParentNode())
+            System.arraycopy(node.GetPrefix(), node.GetOffset(), key, node.GetDepth() - node.GetLength(), node.GetLength());
+        return new String(key);
+    }
+    
+    //Metrics: operation counters and latencies, and the shape of the tree computed when
+    //read; off by default, and then an operation only tests a null field. While they are
+    //on, every change of the tree holds the lock of the metrics, which JMX holds to read
+    public void SetMetricsEnabled(boolean enabled) {
+        if(enabled == (metrics != null)) return;
+        
+        if(enabled) {
+            metrics = new TrieMetrics(this);
+            return;
+        }
+        try {
+            metrics.Unregister();
+        }
+        catch(JMException e) {
+            //the bean is gone already
+        }
+        //waits for a read in progress; the detached metrics do not read the tree again
+        metrics.Detach();
+        metrics = null;
+    }
+    
+    //null while metrics are off
+    public TrieMetrics GetMetrics() {
+        return metrics;
+    }
+    
+    //Registers the metrics as classtrie:type=Trie,name=<name>, enabling them first
+    public void RegisterMBean(String name) throws JMException {
+        SetMetricsEnabled(true);
+        metrics.Register("classtrie", "Trie", name);
+    }
+    
+    private void Record(int operation, long start) {
+        metrics.Record(operation, start);
+    }
+    
+    //Current shape of the tree, whether metrics are on or not; the walk goes down to the
+    //first child or over to the next sibling, climbing the parent links when there is none
+    public TrieStatistics GetStatistics() {
+        TrieStatistics statistics = new TrieStatistics();
+        TrieNode<Type> node = root;
+        int depth = 0;
+        
+        while(node != null) {
+            statistics.AddNode(depth, node.GetChildCount(), node.GetValue() != null, node.GetRetainedBytes());
+            
+            TrieNode<Type> child = node.NextChild(-1);
+            if(child != null) {
+                node = child;
+                depth++;
+                continue;
+            }
+            
+            while(node != root) {
+                TrieNode<Type> next = node.GetParentNode().NextChild(node.GetLabel());
+                if(next != null) {
+                    node = next;
+                    break;
+                }
+                node = node.GetParentNode();
+                depth--;
+            }
+            if(node == root) node = null;
+        }
+        return statistics;
+    }
+    
+    //Cursor over the keys in key order. The walk never recurses: a step goes down to a
+    //child or up the parent links to the next sibling, so the path to the root serves as
+    //the stack of the depth-first walk
     class Iterator<Type> {
-        private Node node;
+        private TrieNode node;
         private Trie trie;
         
         public Iterator(Trie _trie) {
             trie = _trie;
         }
     
-        public Iterator(Trie _trie, String key) {
+        public Iterator(Trie _trie, CharSequence key) {
             trie = _trie;
             node = trie.FindElementByKey(key);
         }
     
-        public void SetNode(Node _node)         { node = _node; }
-        public void GetElementByKey(String key) { node = trie.FindElementByKey(key); }
-        public Type Dereference()               { if(node != null) return (Type)node.GetValue(); return null; }
-        public String GetKey()                  { return node.GetKey(); }
-        public Node GetNode()                   { return node; }
+        public void SetNode(TrieNode _node)             { node = _node; }
+        public void GetElementByKey(CharSequence key)   { node = trie.FindElementByKey(key); }
+        public Type Dereference()                       { if(node != null) return (Type)node.GetValue(); return null; }
+        public String GetKey()                          { return trie.GetKey(node); }
+        public void GetKey(StringBuilder sink)          { trie.WriteKey(node, sink); }
+        public TrieNode GetNode()                       { return node; }
+        
+        public boolean IsDereferencable() {
+            return node != null && node.GetValue() != null;
+        }
+        
+        //Past either end the iterator wraps around, as the Hash iterator does
+        public void AdwanceOne() {
+            if(node == null) GetFirstElement();
+            else node = trie.FirstValue(trie.Successor(node, trie.root), trie.root);
+        }
+        
+        public void RewindOne() {
+            if(node == null) GetRearElement();
+            else node = trie.LastValue(trie.Predecessor(node));
+        }
+        
+        public void GetFirstElement() {
+            node = trie.FirstValue(trie.root, trie.root);
+        }
+        
+        public void GetRearElement() {
+            node = trie.LastValue(trie.Last(trie.root));
+        }
+        
+        //Positions on the first key not less than the given one
+        public void SeekCeiling(CharSequence key) {
+            node = trie.Ceiling(key);
+        }
     }
 }
 
@@ -229,7 +784,486 @@ public class ClassTrie {
         System.out.println("Test successful!");
     }
     
-    public static void main(String[] args) {
+    public static void testRandom(Trie trie, int count, int alphabet) {
+        HashMap<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(count);
+        
+        for(int i = 0; i < count; i++) {
+            char[] chars = new char[1 + random.nextInt(8)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String key = new String(chars);
+            
+            if(random.nextInt(3) == 0) {
+                trie.Delete(key);
+                expected.remove(key);
+            }
+            else {
+                trie.Insert(key, i);
+                expected.put(key, i);
+            }
+        }
+        
+        Trie.Iterator iter = trie.new Iterator(trie);
+        for(String key : expected.keySet()) {
+            iter.GetElementByKey(key);
+            if(!expected.get(key).equals(iter.Dereference()) || !key.equals(iter.GetKey())) {
+                System.out.println("Test error!");
+                return;
+            }
+        }
+        test(trie.GetSize() == expected.size());
+    }
+    
+    public static boolean same(java.util.Iterator<Map.Entry<String, Object>> scan, Map<String, Integer> expected, int limit) {
+        int count = 0;
+        for(Map.Entry<String, Integer> entry : expected.entrySet()) {
+            if(count++ == limit) break;
+            if(!scan.hasNext()) return false;
+            Map.Entry<String, Object> actual = scan.next();
+            if(!actual.getKey().equals(entry.getKey()) || !actual.getValue().equals(entry.getValue())) return false;
+        }
+        return !scan.hasNext();
+    }
+    
+    public static void testScan(int count, int alphabet) {
+        Trie<Object> trie = new Trie<Object>();
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Random random = new Random(count);
+        
+        for(int i = 0; i < count; i++) {
+            char[] chars = new char[1 + random.nextInt(6)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String key = new String(chars);
+            
+            if(random.nextInt(4) == 0) {
+                trie.Delete(key);
+                expected.remove(key);
+            }
+            else {
+                trie.Insert(key, i);
+                expected.put(key, i);
+            }
+        }
+        
+        boolean ok = same(trie.PrefixScan("", -1), expected, -1);
+        for(int i = 0; i < 300; i++) {
+            char[] chars = new char[random.nextInt(4)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String prefix = new String(chars);
+            
+            TreeMap<String, Integer> matching = new TreeMap<String, Integer>();
+            for(Map.Entry<String, Integer> entry : expected.tailMap(prefix).entrySet()) {
+                if(!entry.getKey().startsWith(prefix)) break;
+                matching.put(entry.getKey(), entry.getValue());
+            }
+            int limit = random.nextInt(10) - 1;
+            ok &= same(trie.PrefixScan(prefix, limit), matching, limit);
+            ok &= trie.CountWithPrefix(prefix) == matching.size();
+            
+            chars = new char[random.nextInt(4)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String to = new String(chars);
+            Map<String, Integer> range = prefix.compareTo(to) < 0 ? expected.subMap(prefix, to) : new TreeMap<String, Integer>();
+            ok &= same(trie.Range(prefix, to), range, -1);
+        }
+        test(ok);
+    }
+    
+    //Bytes allocated by the current thread, or -1 when the JVM does not count them
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    public static void testAllocation(Trie trie, String[] keys) {
+        StringBuilder lookup = new StringBuilder(64), sink = new StringBuilder(64);
+        Trie.Iterator iter = trie.new Iterator(trie);
+        boolean ok = true;
+        
+        for(int round = 0; round < 2; round++) {
+            long before = allocatedBytes();
+            
+            for(int i = 0; i < keys.length; i++) {
+                lookup.setLength(0);
+                lookup.append(keys[i]);
+                iter.GetElementByKey(lookup);
+                iter.GetKey(sink);
+                ok &= sink.length() == keys[i].length() && sink.charAt(sink.length() - 1) == keys[i].charAt(keys[i].length() - 1);
+            }
+            
+            int count = 0;
+            for(Trie.Scan scan = trie.PrefixScan("", -1); scan.IsDereferencable(); scan.AdwanceOne())
+                count += scan.GetKey().length() > 0 ? 1 : 0;
+            ok &= count == keys.length;
+            
+            //the first round may still load classes and grow the buffers; the second one
+            //allocates only the scan and its key buffer, not per key
+            if(round == 1 && before >= 0)
+                ok &= allocatedBytes() - before < 4096;
+        }
+        test(ok);
+    }
+    
+    public static void testCursor(int count, int alphabet) {
+        Trie trie = new Trie();
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Random random = new Random(count);
+        
+        for(int i = 0; i < count; i++) {
+            char[] chars = new char[1 + random.nextInt(6)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            trie.Insert(new String(chars), i);
+            expected.put(new String(chars), i);
+        }
+        
+        boolean ok = true;
+        Trie.Iterator iter = trie.new Iterator(trie);
+        iter.GetFirstElement();
+        for(String key : expected.keySet()) {
+            ok &= iter.IsDereferencable() && iter.GetKey().equals(key);
+            iter.AdwanceOne();
+        }
+        ok &= !iter.IsDereferencable();
+        
+        iter.GetRearElement();
+        for(String key : expected.descendingKeySet()) {
+            ok &= iter.IsDereferencable() && iter.GetKey().equals(key);
+            iter.RewindOne();
+        }
+        ok &= !iter.IsDereferencable();
+        
+        //За концами обход продолжается с другого конца
+        iter.RewindOne();
+        ok &= iter.IsDereferencable() && iter.GetKey().equals(expected.lastKey());
+        iter.AdwanceOne();
+        ok &= !iter.IsDereferencable();
+        iter.AdwanceOne();
+        ok &= iter.IsDereferencable() && iter.GetKey().equals(expected.firstKey());
+        
+        for(int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(7)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String ceiling = expected.ceilingKey(new String(chars));
+            
+            iter.SeekCeiling(new String(chars));
+            ok &= ceiling == null ? !iter.IsDereferencable() : iter.GetKey().equals(ceiling);
+        }
+        
+        //Части делятся пополам, сохраняя порядок ключей
+        java.util.List<String> keys = new java.util.ArrayList<String>();
+        java.util.ArrayDeque<Spliterator<Map.Entry<String, Object>>> parts = new java.util.ArrayDeque<Spliterator<Map.Entry<String, Object>>>();
+        parts.push(trie.Spliterator());
+        while(!parts.isEmpty()) {
+            Spliterator<Map.Entry<String, Object>> part = parts.pop();
+            Spliterator<Map.Entry<String, Object>> first = part.estimateSize() > 100 ? part.trySplit() : null;
+            if(first != null) {
+                ok &= Math.abs(first.estimateSize() - part.estimateSize()) <= 1;
+                parts.push(part);
+                parts.push(first);
+            }
+            else part.forEachRemaining(entry -> keys.add(entry.getKey()));
+        }
+        ok &= keys.equals(new java.util.ArrayList<String>(expected.keySet()));
+        
+        long sum = java.util.stream.StreamSupport.stream(trie.Spliterator(), true)
+            .mapToLong(entry -> (Integer)((Map.Entry)entry).getValue()).sum();
+        long expectedSum = 0;
+        for(int value : expected.values()) expectedSum += value;
+        test(ok && sum == expectedSum);
+    }
+    
+    public static void testConcurrentTrie() throws InterruptedException {
+        //Последовательно: те же ответы, что и у TreeMap
+        ConcurrentTrie<Integer> single = new ConcurrentTrie<Integer>();
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Random random = new Random(5);
+        boolean ok = true;
+        
+        for(int i = 0; i < 30000; i++) {
+            char[] chars = new char[random.nextInt(6)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(i % 2 == 0 ? 3 : 600));
+            String key = new String(chars);
+            
+            if(random.nextInt(3) == 0)
+                ok &= java.util.Objects.equals(single.Delete(key), expected.remove(key));
+            else {
+                single.Insert(key, i);
+                expected.put(key, i);
+            }
+        }
+        for(String key : expected.keySet())
+            ok &= single.FindElementByKey(key).equals(expected.get(key));
+        
+        java.util.Iterator<Map.Entry<String, Integer>> scan = single.PrefixScan("", -1);
+        for(Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Map.Entry<String, Integer> actual = scan.next();
+            ok &= actual.getKey().equals(entry.getKey()) && actual.getValue().equals(entry.getValue());
+        }
+        ok &= !scan.hasNext() && single.GetSize() == expected.size();
+        
+        int withPrefix = 0;
+        for(String key : expected.keySet()) if(key.startsWith("ab")) withPrefix++;
+        ok &= single.CountWithPrefix("ab") == withPrefix;
+        scan = single.PrefixScan("ab", 5);
+        for(int i = 0; i < Math.min(5, withPrefix); i++) ok &= scan.next().getKey().startsWith("ab");
+        test(ok && !scan.hasNext());
+        
+        //Параллельно: читатели всегда видят постоянные ключи, писатели не теряют вставки
+        final ConcurrentTrie<Integer> trie = new ConcurrentTrie<Integer>();
+        final int writerCount = 4, readerCount = 4, count = 5000;
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[writerCount + readerCount];
+        
+        for(int i = 0; i < 100; i++)
+            trie.Insert("fixed/" + i, i);
+        
+        for(int t = 0; t < writerCount; t++) {
+            final int writer = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for(int i = 0; i < count; i++) {
+                        trie.Insert("w" + writer + "/" + i, i);
+                        if(i % 2 == 1) trie.Delete("w" + writer + "/" + (i - 1));
+                    }
+                }
+            });
+        }
+        for(int t = writerCount; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for(int round = 0; round < 200; round++) {
+                        for(int i = 0; i < 100; i++)
+                            if(trie.FindElementByKey("fixed/" + i) == null) failed[0] = true;
+                        if(trie.CountWithPrefix("fixed/") != 100) failed[0] = true;
+                        
+                        int seen = 0;
+                        for(java.util.Iterator<Map.Entry<String, Integer>> it = trie.PrefixScan("fixed/", -1); it.hasNext(); it.next())
+                            seen++;
+                        if(seen != 100) failed[0] = true;
+                    }
+                }
+            });
+        }
+        for(int t = 0; t < threads.length; t++) threads[t].start();
+        for(int t = 0; t < threads.length; t++) threads[t].join();
+        
+        ok = !failed[0] && trie.GetSize() == 100 + writerCount * count / 2;
+        for(int t = 0; t < writerCount; t++)
+            for(int i = 0; i < count; i++)
+                ok &= (trie.FindElementByKey("w" + t + "/" + i) != null) == (i % 2 == 1);
+        test(ok);
+    }
+    
+    public static void testFrozenTrie(int count, int alphabet) {
+        Trie<Integer> trie = new Trie<Integer>();
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Random random = new Random(count);
+        
+        for(int i = 0; i < count; i++) {
+            char[] chars = new char[random.nextInt(7)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            trie.Insert(new String(chars), i);
+            expected.put(new String(chars), i);
+        }
+        
+        FrozenTrie<Integer> frozen = trie.Freeze();
+        trie.Insert("changed after freezing", -1);
+        boolean ok = frozen.GetSize() == expected.size() && !frozen.ContainsKey("changed after freezing");
+        
+        for(Map.Entry<String, Integer> entry : expected.entrySet())
+            ok &= frozen.FindElementByKey(entry.getKey()).equals(entry.getValue());
+        
+        java.util.Iterator<Map.Entry<String, Integer>> scan = frozen.PrefixScan("", -1);
+        for(Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Map.Entry<String, Integer> actual = scan.next();
+            ok &= actual.getKey().equals(entry.getKey()) && actual.getValue().equals(entry.getValue());
+        }
+        ok &= !scan.hasNext();
+        
+        for(int i = 0; i < 300; i++) {
+            char[] chars = new char[random.nextInt(4)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            String prefix = new String(chars);
+            
+            ok &= frozen.ContainsKey(prefix) == expected.containsKey(prefix);
+            TreeMap<String, Integer> matching = new TreeMap<String, Integer>();
+            for(Map.Entry<String, Integer> entry : expected.tailMap(prefix).entrySet()) {
+                if(!entry.getKey().startsWith(prefix)) break;
+                matching.put(entry.getKey(), entry.getValue());
+            }
+            ok &= frozen.CountWithPrefix(prefix) == matching.size();
+            
+            int limit = random.nextInt(10) - 1;
+            scan = frozen.PrefixScan(prefix, limit);
+            int seen = 0;
+            for(Map.Entry<String, Integer> entry : matching.entrySet()) {
+                if(seen++ == limit) break;
+                Map.Entry<String, Integer> actual = scan.next();
+                ok &= actual.getKey().equals(entry.getKey()) && actual.getValue().equals(entry.getValue());
+            }
+            ok &= !scan.hasNext();
+        }
+        test(ok);
+    }
+    
+    public static void testTrieFile() throws IOException {
+        File file = File.createTempFile("trie", ".bin");
+        Trie<Object> trie = new Trie<Object>();
+        TreeMap<String, Object> expected = new TreeMap<String, Object>();
+        
+        for(int i = 0; i < 20000; i++) {
+            String key = "товар/" + Integer.toString(i * 7919 % 50000, 36);
+            Object value = i % 3 == 0 ? (Object)("name " + i) : i % 3 == 1 ? (Object)i : (Object)(i / 8.0);
+            trie.Insert(key, value);
+            expected.put(key, value);
+        }
+        trie.Save(file.getPath());
+        
+        FrozenTrie<Object> opened = FrozenTrie.Open(file.getPath());
+        boolean ok = opened.GetSize() == expected.size() && opened.CountWithPrefix("товар/1") == expected.subMap("товар/1", "товар/2").size();
+        for(Map.Entry<String, Object> entry : expected.entrySet())
+            ok &= entry.getValue().equals(opened.FindElementByKey(entry.getKey()));
+        ok &= opened.FindElementByKey("товар/") == null && opened.FindElementByKey("x") == null;
+        
+        java.util.Iterator<Map.Entry<String, Object>> scan = opened.PrefixScan("товар/a", -1);
+        for(Map.Entry<String, Object> entry : expected.subMap("товар/a", "товар/b").entrySet()) {
+            Map.Entry<String, Object> actual = scan.next();
+            ok &= actual.getKey().equals(entry.getKey()) && actual.getValue().equals(entry.getValue());
+        }
+        ok &= !scan.hasNext();
+        
+        new Trie<Object>().Save(file.getPath());
+        opened = FrozenTrie.Open(file.getPath());
+        test(ok && opened.GetSize() == 0 && !opened.PrefixScan("", -1).hasNext());
+        file.delete();
+    }
+    
+    public static void testMetrics() throws JMException {
+        Trie small = new Trie();
+        String[] keys = {"a", "ab", "ac", "b"};
+        for(int i = 0; i < keys.length; i++)
+            small.Insert(keys[i], i);
+        
+        TrieStatistics statistics = small.GetStatistics();
+        int[] depths = statistics.GetDepthHistogram(), fanOuts = statistics.GetFanOutHistogram();
+        test(statistics.GetNodes() == 5 && statistics.GetEntries() == 4 && statistics.GetMaxDepth() == 2);
+        test(depths[1] == 2 && depths[2] == 2 && Math.abs(statistics.GetAverageDepth() - 1.5) < E);
+        test(fanOuts[0] == 3 && fanOuts[2] == 2 && Math.abs(statistics.GetAverageFanOut() - 2) < E);
+        test(statistics.GetRetainedBytes() > 5 * 48 && small.GetMetrics() == null);
+        
+        Trie trie = new Trie();
+        trie.SetMetricsEnabled(true);
+        TrieMetrics metrics = trie.GetMetrics();
+        for(int i = 0; i < 3000; i++)
+            trie.Insert("key/" + i, i);
+        Trie.Iterator iter = trie.new Iterator(trie);
+        for(int i = 0; i < 1000; i++)
+            iter.GetElementByKey("key/" + i);
+        for(int i = 0; i < 500; i++)
+            trie.Delete("key/" + i);
+        trie.Insert("key/600", null);
+        
+        test(metrics.getInsertCount() == 3001 && metrics.getLookupCount() == 1000 && metrics.getDeleteCount() == 500);
+        test(metrics.getLookupMeanNanos() > 0 && metrics.getLookupMaxNanos() > 0);
+        test(trie.GetStatistics().GetEntries() == 2499 && trie.GetStatistics().GetMaxFanOut() == 10);
+        
+        //JMX: форма дерева считается при чтении, не чаще раза в секунду
+        trie.SetMetricsEnabled(false);
+        test(trie.GetMetrics() == null);
+        trie.RegisterMBean("test");
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = trie.GetMetrics().GetObjectName();
+        test(server.isRegistered(name) && server.getAttribute(name, "Entries").equals(2499));
+        test(((int[])server.getAttribute(name, "FanOutHistogram"))[0] == 2499 && server.getAttribute(name, "InsertCount").equals(0L));
+        trie.Insert("key/x", 1);
+        test(server.getAttribute(name, "Entries").equals(2500) && server.getAttribute(name, "Nodes").equals(trie.GetMetrics().GetStatistics().GetNodes()));
+        
+        trie.SetMetricsEnabled(false);
+        test(!server.isRegistered(name));
+    }
+    
+    public static boolean sameTrie(Trie trie, TreeMap<String, Integer> expected) {
+        boolean ok = trie.GetSize() == expected.size() && same((java.util.Iterator)trie.PrefixScan("", -1), expected, -1);
+        for(String key : expected.keySet()) {
+            ok &= trie.CountWithPrefix(key) == expected.subMap(key, key + Character.MAX_VALUE).size();
+            Trie.Iterator iter = trie.new Iterator(trie, key);
+            ok &= expected.get(key).equals(iter.Dereference());
+            
+            //как и после вставок, у узла без значения не меньше двух потомков
+            TrieNode node = iter.GetNode().GetParentNode();
+            ok &= node == null || node.GetParentNode() == null || node.GetValue() != null || node.GetChildCount() > 1;
+        }
+        return ok;
+    }
+    
+    public static void testBuildFromSorted(int count, int alphabet, String prefix) {
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Random random = new Random(count + alphabet);
+        
+        for(int i = 0; i < count; i++) {
+            char[] chars = new char[random.nextInt(7)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(alphabet));
+            expected.put(prefix + new String(chars), i);
+        }
+        
+        List<Map.Entry<String, Integer>> entries = new java.util.ArrayList<Map.Entry<String, Integer>>(expected.entrySet());
+        boolean ok = sameTrie(Trie.BuildFromSorted(entries.iterator()), expected);
+        ok &= sameTrie(Trie.BuildFromSortedParallel(entries), expected);
+        
+        Trie<Integer> trie = Trie.BuildFromSortedParallel(entries);
+        trie.Insert(prefix + "zz", -1);
+        trie.Delete(entries.get(0).getKey());
+        ok &= trie.CountWithPrefix(prefix) == expected.size() + (expected.containsKey(prefix + "zz") ? -1 : 0);
+        
+        java.util.Collections.swap(entries, 1, 2);
+        ok &= rejected(entries);
+        test(ok);
+    }
+    
+    //Both builders refuse the entries with IllegalArgumentException
+    public static boolean rejected(List<Map.Entry<String, Integer>> entries) {
+        int refused = 0;
+        try {
+            Trie.BuildFromSorted(entries.iterator());
+        }
+        catch(IllegalArgumentException e) {
+            refused++;
+        }
+        try {
+            Trie.BuildFromSortedParallel(entries);
+        }
+        catch(IllegalArgumentException e) {
+            refused++;
+        }
+        return refused == 2;
+    }
+    
+    public static void testBuildFromSortedRepeats() {
+        String[][] lists = {{"a", "a", "ab"}, {"", ""}, {"", "", "b"}, {"ab", "ab", "ac"}, {"ab", "a", "ab"}, {"b", "a"}};
+        boolean ok = true;
+        
+        for(int l = 0; l < lists.length; l++) {
+            List<Map.Entry<String, Integer>> entries = new java.util.ArrayList<Map.Entry<String, Integer>>();
+            for(int i = 0; i < lists[l].length; i++)
+                entries.add(new java.util.AbstractMap.SimpleEntry<String, Integer>(lists[l][i], i));
+            ok &= rejected(entries);
+        }
+        test(ok);
+    }
+    
+    public static void main(String[] args) throws InterruptedException, IOException, JMException {
         Trie trie = new Trie();
         Trie.Iterator iter = trie.new Iterator(trie);
         
@@ -259,5 +1293,141 @@ public class ClassTrie {
         trie.Insert("any", 123.3);
         iter.GetElementByKey("any");
         System.out.println(iter.Dereference());
+        test(iter.GetKey().equals("any"));
+        iter.GetElementByKey("any_v");
+        test(iter.Dereference() == null);
+        
+        //Тесты на случайных ключах
+        testRandom(new Trie(), 20000, 3);
+        testRandom(new Trie(), 20000, 26);
+        testRandom(new Trie(), 50000, 150);
+        testRandom(new Trie(), 50000, 1200);
+        
+        //Тесты на размер таблицы потомков
+        Trie wide = new Trie();
+        TrieNode node;
+        for(int c = 0; c < 256; c++) 
+            wide.Insert("x" + (char)c, c);
+        
+        iter = wide.new Iterator(wide, "x");
+        node = iter.GetNode();
+        test(node.GetChildCount() == 256 && node.GetChildCapacity() == 256);
+        
+        for(int c = 0; c < 256; c++)
+            if(c % 8 != 0)
+                wide.Delete("x" + (char)c);
+        
+        test(node.GetChildCount() == 32 && node.GetChildCapacity() == 48);
+        iter.GetElementByKey("x" + (char)64);
+        test(iter.Dereference().equals(64) && wide.GetSize() == 32);
+        
+        for(int c = 16; c < 256; c++)
+            wide.Delete("x" + (char)c);
+        
+        test(node.GetChildCount() == 2 && node.GetChildCapacity() == 4);
+        wide.Delete("x" + (char)8);
+        iter.GetElementByKey("x");
+        test(iter.GetNode() == null);
+        iter.GetElementByKey("x" + (char)0);
+        test(iter.Dereference().equals(0) && wide.GetSize() == 1);
+        
+        //Тесты на поиск по префиксу и диапазону
+        testScan(2000, 3);
+        testScan(20000, 26);
+        testScan(20000, 1200);
+        
+        Trie dictionaryTrie = new Trie();
+        String[] dictionary = {"car", "card", "care", "cared", "cart", "cat", "dog"};
+        for(int i = 0; i < dictionary.length; i++)
+            dictionaryTrie.Insert(dictionary[i], i);
+        
+        java.util.Iterator<Map.Entry<String, Object>> scan = dictionaryTrie.PrefixScan("car", 3);
+        test(scan.next().getKey().equals("car") && scan.next().getKey().equals("card")
+            && scan.next().getKey().equals("care") && !scan.hasNext());
+        test(dictionaryTrie.CountWithPrefix("ca") == 6 && dictionaryTrie.CountWithPrefix("care") == 2
+            && dictionaryTrie.CountWithPrefix("cb") == 0 && dictionaryTrie.CountWithPrefix("") == 7);
+        scan = dictionaryTrie.Range("card", "cat");
+        test(scan.next().getKey().equals("card") && scan.next().getKey().equals("care")
+            && scan.next().getKey().equals("cared") && scan.next().getKey().equals("cart") && !scan.hasNext());
+        
+        //Тесты на обход в обоих направлениях
+        testCursor(3000, 3);
+        testCursor(30000, 26);
+        testCursor(30000, 1200);
+        
+        //Тесты на восстановление ключей без выделения памяти
+        StringBuilder sink = new StringBuilder();
+        iter = dictionaryTrie.new Iterator(dictionaryTrie, new StringBuilder("cared"));
+        iter.GetKey(sink);
+        test(sink.toString().equals("cared") && iter.Dereference().equals(3));
+        
+        Trie.Scan keys = dictionaryTrie.PrefixScan("ca", -1);
+        StringBuilder all = new StringBuilder();
+        for(; keys.IsDereferencable(); keys.AdwanceOne())
+            all.append(keys.GetKey()).append(' ');
+        test(all.toString().equals("car card care cared cart cat "));
+        
+        String[] many = new String[5000];
+        for(int i = 0; i < many.length; i++)
+            many[i] = "item/" + (i * 7919 % 100000);
+        Trie manyTrie = new Trie();
+        for(int i = 0; i < many.length; i++)
+            manyTrie.Insert(many[i], i);
+        testAllocation(manyTrie, many);
+        
+        //Тесты для конкурентного дерева
+        testConcurrentTrie();
+        
+        //Тесты для замороженного дерева
+        testFrozenTrie(3000, 3);
+        testFrozenTrie(30000, 26);
+        testFrozenTrie(30000, 1200);
+        
+        //Тесты на построение из отсортированных ключей
+        testBuildFromSorted(3000, 3, "");
+        testBuildFromSorted(30000, 26, "");
+        testBuildFromSorted(30000, 1200, "");
+        testBuildFromSorted(20000, 26, "https://example.com/");
+        testBuildFromSortedRepeats();
+        
+        //Тесты на сохранение в файл и отображение в память
+        testTrieFile();
+        
+        //Тесты метрик
+        testMetrics();
+        
+        //Тесты на ключи Unicode
+        Trie unicode = new Trie();
+        String[] words = {"молоко", "молот", "мол", "milk", "Milch", "牛奶", "牛肉", "γάλα", "😀", "😀😁", "mол"};
+        for(int i = 0; i < words.length; i++)
+            unicode.Insert(words[i], i);
+        
+        boolean found = true;
+        for(int i = 0; i < words.length; i++) {
+            iter = unicode.new Iterator(unicode, words[i]);
+            found &= iter.Dereference().equals(i) && iter.GetKey().equals(words[i]);
+        }
+        test(found && unicode.GetSize() == words.length);
+        
+        for(int c = 0; c < 256; c++)
+            unicode.Insert("y" + (char)c, c);
+        unicode.Insert("yя", 1000);
+        iter = unicode.new Iterator(unicode, "y");
+        node = iter.GetNode();
+        test(node.GetChildCount() == 257 && node.GetChildCapacity() == 512);
+        
+        found = true;
+        for(int c = 0; c < 256; c++) {
+            iter.GetElementByKey("y" + (char)c);
+            found &= iter.Dereference().equals(c);
+        }
+        iter.GetElementByKey("yя");
+        test(found && iter.Dereference().equals(1000));
+        
+        for(int c = 1; c < 256; c++)
+            unicode.Delete("y" + (char)c);
+        test(node.GetChildCount() == 2 && node.GetChildCapacity() == 4);
+        iter.GetElementByKey("yя");
+        test(iter.Dereference().equals(1000) && unicode.GetSize() == words.length + 2);
     }
 }
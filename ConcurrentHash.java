@@ -0,0 +1,338 @@
+
+package pkgclass.hashmap;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+//Lock-striped Hash: reads never lock, writes lock one segment
+class ConcurrentHash<Type> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int SEGMENT_CAPACITY = 16;
+    private static final double LOAD_FACTOR = 0.75;
+
+    //Node: key and hash never change, value and next are published through volatile writes
+    private static class Node<Type> {
+        private final String key;
+        private final int hash;
+        private volatile Type value;
+        private volatile Node<Type> next;
+
+        Node(String _key, int _hash, Type _value, Node<Type> _next) {
+            key = _key;
+            hash = _hash;
+            value = _value;
+            next = _next;
+        }
+    }
+
+    //Segment
+    private static class Segment<Type> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile AtomicReferenceArray<Node<Type>> table;
+        private volatile int count;
+
+        Segment(int capacity) {
+            table = new AtomicReferenceArray<Node<Type>>(capacity);
+        }
+
+        private static int IndexFor(int hash, int length) {
+            return hash & (length - 1);
+        }
+
+        public Node<Type> Find(String key, int hash) {
+            AtomicReferenceArray<Node<Type>> tab = table;
+            Node<Type> node = tab.get(IndexFor(hash, tab.length()));
+
+            while(node != null && (node.hash != hash || !node.key.equals(key)))
+                node = node.next;
+            return node;
+        }
+
+        //Must be called under the segment lock
+        public Type Put(String key, int hash, Type value, boolean onlyIfAbsent) {
+            Node<Type> node = Find(key, hash);
+            if(node != null) {
+                Type old = node.value;
+                if(!onlyIfAbsent)
+                    node.value = value;
+                return old;
+            }
+
+            if(count + 1 > LOAD_FACTOR * table.length())
+                Rehash();
+
+            AtomicReferenceArray<Node<Type>> tab = table;
+            int index = IndexFor(hash, tab.length());
+            tab.set(index, new Node<Type>(key, hash, value, tab.get(index)));
+            count = count + 1;
+            return null;
+        }
+
+        //Must be called under the segment lock
+        public Type Remove(String key, int hash) {
+            AtomicReferenceArray<Node<Type>> tab = table;
+            int index = IndexFor(hash, tab.length());
+            Node<Type> prev = null, node = tab.get(index);
+
+            while(node != null && (node.hash != hash || !node.key.equals(key))) {
+                prev = node;
+                node = node.next;
+            }
+
+            if(node == null) return null;
+
+            if(prev == null)
+                tab.set(index, node.next);
+            else
+                prev.next = node.next;
+            count = count - 1;
+            return node.value;
+        }
+
+        //Copies the chains so that readers still walking the old table see them intact
+        private void Rehash() {
+            AtomicReferenceArray<Node<Type>> oldTable = table;
+            int length = oldTable.length() << 1;
+            AtomicReferenceArray<Node<Type>> newTable = new AtomicReferenceArray<Node<Type>>(length);
+
+            for(int i = 0; i < oldTable.length(); i++)
+                for(Node<Type> node = oldTable.get(i); node != null; node = node.next) {
+                    int index = IndexFor(node.hash, length);
+                    newTable.set(index, new Node<Type>(node.key, node.hash, node.value, newTable.get(index)));
+                }
+            table = newTable;
+        }
+    }
+
+    //Iterator: weakly consistent, never throws on concurrent modification
+    public class Iterator {
+        private ConcurrentHash<Type> hash;
+        private int segment, index;
+        private AtomicReferenceArray<Node<Type>> table;
+        private Node<Type> element;
+
+        public Iterator(ConcurrentHash<Type> _hash, String key) {
+            hash = _hash;
+            GetElementByKey(key);
+        }
+
+        public Iterator(ConcurrentHash<Type> _hash) {
+            hash = _hash;
+            GetFirstElement();
+        }
+
+        public boolean IsDereferencable() {
+            return element != null;
+        }
+
+        public void AdwanceOne() {
+            if(!IsDereferencable()) {
+                GetFirstElement();
+                return;
+            }
+
+            if(element.next != null) {
+                element = element.next;
+                return;
+            }
+            SeekForward(segment, index + 1);
+        }
+
+        public void RewindOne() {
+            if(!IsDereferencable()) {
+                GetRearElement();
+                return;
+            }
+
+            Node<Type> prev = null;
+            for(Node<Type> node = table.get(index); node != null && node != element; node = node.next)
+                prev = node;
+
+            if(prev != null)
+                element = prev;
+            else
+                SeekBackward(segment, index - 1);
+        }
+
+        private void SeekForward(int _segment, int _index) {
+            for(segment = _segment; segment < hash.segments.size(); segment++, _index = 0) {
+                table = hash.segments.get(segment).table;
+                for(index = _index; index < table.length(); index++) {
+                    element = table.get(index);
+                    if(element != null) return;
+                }
+            }
+            element = null;
+        }
+
+        private void SeekBackward(int _segment, int _index) {
+            for(segment = _segment; segment >= 0; segment--, _index = Integer.MAX_VALUE) {
+                table = hash.segments.get(segment).table;
+                for(index = Math.min(_index, table.length() - 1); index >= 0; index--) {
+                    element = table.get(index);
+                    if(element != null) {
+                        while(element.next != null)
+                            element = element.next;
+                        return;
+                    }
+                }
+            }
+            element = null;
+        }
+
+        public void GetFirstElement()   { SeekForward(0, 0); }
+        public void GetRearElement()    { SeekBackward(hash.segments.size() - 1, Integer.MAX_VALUE); }
+
+        public void GetElementByKey(String key) {
+            int h = hash.hashFunction.Hash(key);
+            segment = hash.SegmentFor(h);
+            table = hash.segments.get(segment).table;
+            index = Segment.IndexFor(h, table.length());
+
+            element = table.get(index);
+            while(element != null && (element.hash != h || !element.key.equals(key)))
+                element = element.next;
+        }
+
+        public Type Dereference()   { return element.value; }
+        public String GetKey()      { return element.key; }
+    }
+
+    //ConcurrentHash
+    private ArrayList<Segment<Type>> segments;
+    private int segmentShift;
+    private HashFunction hashFunction;
+
+    public ConcurrentHash() {
+        this(DEFAULT_SEGMENTS, HashFunction.STRING_MIX);
+    }
+
+    public ConcurrentHash(int concurrencyLevel, HashFunction _hashFunction) {
+        int count = OpenAddressingStorage.TableSizeFor(concurrencyLevel);
+
+        hashFunction = _hashFunction;
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        segments = new ArrayList<Segment<Type>>(count);
+        for(int i = 0; i < count; i++)
+            segments.add(new Segment<Type>(SEGMENT_CAPACITY));
+    }
+
+    //Segments are chosen by the high bits, buckets inside a segment by the low ones
+    private int SegmentFor(int hash) {
+        return hash >>> segmentShift;
+    }
+
+    public Type FindElementByKey(String key) {
+        int hash = hashFunction.Hash(key);
+        Node<Type> node = segments.get(SegmentFor(hash)).Find(key, hash);
+        return node == null ? null : node.value;
+    }
+
+    public boolean ContainsKey(String key) {
+        return FindElementByKey(key) != null;
+    }
+
+    public void Insert(String key, Type value) {
+        Put(key, value, false);
+    }
+
+    public Type PutIfAbsent(String key, Type value) {
+        return Put(key, value, true);
+    }
+
+    private Type Put(String key, Type value, boolean onlyIfAbsent) {
+        if(value == null) throw new NullPointerException();
+
+        int hash = hashFunction.Hash(key);
+        Segment<Type> segment = segments.get(SegmentFor(hash));
+
+        segment.lock.lock();
+        try {
+            return segment.Put(key, hash, value, onlyIfAbsent);
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public Type Delete(String key) {
+        int hash = hashFunction.Hash(key);
+        Segment<Type> segment = segments.get(SegmentFor(hash));
+
+        segment.lock.lock();
+        try {
+            return segment.Remove(key, hash);
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    //Atomically replaces the value with function(key, oldValue); null result removes the key
+    public Type Compute(String key, BiFunction<String, ? super Type, ? extends Type> function) {
+        int hash = hashFunction.Hash(key);
+        Segment<Type> segment = segments.get(SegmentFor(hash));
+
+        segment.lock.lock();
+        try {
+            Node<Type> node = segment.Find(key, hash);
+            Type value = function.apply(key, node == null ? null : node.value);
+
+            if(value == null) {
+                if(node != null) segment.Remove(key, hash);
+            }
+            else if(node != null)
+                node.value = value;
+            else
+                segment.Put(key, hash, value, false);
+            return value;
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    //Atomically stores value, or function(oldValue, value) when the key is present
+    public Type Merge(String key, Type value, BiFunction<? super Type, ? super Type, ? extends Type> function) {
+        if(value == null) throw new NullPointerException();
+
+        int hash = hashFunction.Hash(key);
+        Segment<Type> segment = segments.get(SegmentFor(hash));
+
+        segment.lock.lock();
+        try {
+            Node<Type> node = segment.Find(key, hash);
+            if(node == null) {
+                segment.Put(key, hash, value, false);
+                return value;
+            }
+
+            Type merged = function.apply(node.value, value);
+            if(merged == null)
+                segment.Remove(key, hash);
+            else
+                node.value = merged;
+            return merged;
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public int GetSize() {
+        int size = 0;
+        for(int i = 0; i < segments.size(); i++)
+            size += segments.get(i).count;
+        return size;
+    }
+
+    public void Print() {
+        for(Iterator iterator = new Iterator(this);
+        iterator.IsDereferencable(); iterator.AdwanceOne())
+            System.out.println(iterator.GetKey() + ": " + iterator.Dereference() + ";  ");
+
+        System.out.println();
+    }
+}
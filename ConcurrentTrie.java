@@ -0,0 +1,347 @@
+
+package classtrie;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Trie for many readers and few writers. A published node never changes: a writer copies
+//the path from the root to the changed node and swaps the root with compareAndSet, so
+//a reader works on the root it has read, without locks or retries
+class ConcurrentTrie<Type> {
+    private static final char[] NO_LABELS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    //Node: key from the parent, value, number of values in the subtree and children
+    //sorted by their first char
+    private static final class Node<Type> {
+        private final char[] key;
+        private final Type value;
+        private final int total;
+        private final char[] labels;
+        private final Node<Type>[] children;
+
+        Node(char[] _key, Type _value, int _total, char[] _labels, Node<Type>[] _children) {
+            key = _key;
+            value = _value;
+            total = _total;
+            labels = _labels;
+            children = _children;
+        }
+
+        //Index of the child with the label, or -(insertion point + 1)
+        public int Find(char label) {
+            return Arrays.binarySearch(labels, label);
+        }
+
+        public Node<Type> WithValue(Type _value, int delta) {
+            return new Node<Type>(key, _value, total + delta, labels, children);
+        }
+
+        public Node<Type> WithKey(char[] _key) {
+            return new Node<Type>(_key, value, total, labels, children);
+        }
+
+        //The new child has the same label, so the labels are shared with this node
+        public Node<Type> WithChild(int i, Node<Type> child, int delta) {
+            Node<Type>[] copy = children.clone();
+            copy[i] = child;
+            return new Node<Type>(key, value, total + delta, labels, copy);
+        }
+
+        public Node<Type> WithInsertedChild(int i, Node<Type> child) {
+            char[] newLabels = new char[labels.length + 1];
+            Node<Type>[] copy = new Node[children.length + 1];
+
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, copy, 0, i);
+            newLabels[i] = child.key[0];
+            copy[i] = child;
+            System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+            System.arraycopy(children, i, copy, i + 1, children.length - i);
+            return new Node<Type>(key, value, total + child.total, newLabels, copy);
+        }
+
+        public Node<Type> WithoutChild(int i) {
+            char[] newLabels = new char[labels.length - 1];
+            Node<Type>[] copy = new Node[children.length - 1];
+
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, copy, 0, i);
+            System.arraycopy(labels, i + 1, newLabels, i, newLabels.length - i);
+            System.arraycopy(children, i + 1, copy, i, copy.length - i);
+            return new Node<Type>(key, value, total - children[i].total, newLabels, copy);
+        }
+    }
+
+    private final AtomicReference<Node<Type>> root =
+        new AtomicReference<Node<Type>>(new Node<Type>(NO_LABELS, null, 0, NO_LABELS, NO_CHILDREN));
+
+    public ConcurrentTrie() {
+    }
+
+    private static int Match(char[] prefix, CharSequence key, int position) {
+        int length = Math.min(prefix.length, key.length() - position), j = 0;
+        while(j < length && prefix[j] == key.charAt(position + j))
+            j++;
+        return j;
+    }
+
+    private static char[] Slice(CharSequence key, int from) {
+        char[] part = new char[key.length() - from];
+        for(int i = 0; i < part.length; i++)
+            part[i] = key.charAt(from + i);
+        return part;
+    }
+
+    private static char[] Concat(char[] a, char[] b) {
+        char[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static <Type> Node<Type> Leaf(char[] key, Type value) {
+        return new Node<Type>(key, value, 1, NO_LABELS, NO_CHILDREN);
+    }
+
+    //Node of the key in the snapshot, or null
+    private static <Type> Node<Type> Find(Node<Type> node, CharSequence key) {
+        int position = 0;
+
+        while(position < key.length()) {
+            int i = node.Find(key.charAt(position));
+            if(i < 0) return null;
+
+            node = node.children[i];
+            if(Match(node.key, key, position) < node.key.length) return null;
+            position += node.key.length;
+        }
+        return node;
+    }
+
+    //Wait-free: one volatile read of the root, then a walk over nodes that never change
+    public Type FindElementByKey(CharSequence key) {
+        Node<Type> node = Find(root.get(), key);
+        return node == null ? null : node.value;
+    }
+
+    public boolean ContainsKey(CharSequence key) {
+        return FindElementByKey(key) != null;
+    }
+
+    public int GetSize() {
+        return root.get().total;
+    }
+
+    //A null value is the absence of the key, so inserting null deletes it
+    public void Insert(CharSequence key, Type value) {
+        if(value == null) {
+            Delete(key);
+            return;
+        }
+
+        Node<Type>[] path = new Node[key.length() + 1];
+        int[] slots = new int[key.length() + 1];
+
+        while(true) {
+            Node<Type> snapshot = root.get(), node = snapshot, replacement;
+            int position = 0, depth = 0, delta;
+
+            while(true) {
+                if(position == key.length()) {
+                    delta = node.value == null ? 1 : 0;
+                    replacement = node.WithValue(value, delta);
+                    break;
+                }
+
+                int i = node.Find(key.charAt(position));
+                if(i < 0) {
+                    delta = 1;
+                    replacement = node.WithInsertedChild(-i - 1, Leaf(Slice(key, position), value));
+                    break;
+                }
+
+                Node<Type> child = node.children[i];
+                int j = Match(child.key, key, position);
+
+                if(j < child.key.length) {
+                    //the key leaves the child key in the middle: split the child there
+                    Node<Type> lower = child.WithKey(Arrays.copyOfRange(child.key, j, child.key.length));
+                    Node<Type> med = new Node<Type>(Arrays.copyOf(child.key, j), null, lower.total,
+                        new char[] {lower.key[0]}, new Node[] {lower});
+
+                    med = position + j == key.length()
+                        ? med.WithValue(value, 1)
+                        : med.WithInsertedChild(key.charAt(position + j) < lower.key[0] ? 0 : 1, Leaf(Slice(key, position + j), value));
+                    delta = 1;
+                    replacement = node.WithChild(i, med, delta);
+                    break;
+                }
+
+                path[depth] = node;
+                slots[depth++] = i;
+                node = child;
+                position += j;
+            }
+
+            while(depth > 0) {
+                depth--;
+                replacement = path[depth].WithChild(slots[depth], replacement, delta);
+            }
+            if(root.compareAndSet(snapshot, replacement))
+                return;
+        }
+    }
+
+    //Returns the removed value, or null when there was no such key
+    public Type Delete(CharSequence key) {
+        Node<Type>[] path = new Node[key.length() + 1];
+        int[] slots = new int[key.length() + 1];
+
+        while(true) {
+            Node<Type> snapshot = root.get(), node = snapshot;
+            int position = 0, depth = 0;
+
+            while(position < key.length()) {
+                int i = node.Find(key.charAt(position));
+                if(i < 0) return null;
+
+                Node<Type> child = node.children[i];
+                if(Match(child.key, key, position) < child.key.length) return null;
+
+                path[depth] = node;
+                slots[depth++] = i;
+                node = child;
+                position += child.key.length;
+            }
+            if(node.value == null) return null;
+
+            Node<Type> replacement;
+            if(depth == 0)
+                replacement = node.WithValue(null, -1);
+            else if(node.children.length == 1)
+                replacement = node.children[0].WithKey(Concat(node.key, node.children[0].key));
+            else if(node.children.length > 1)
+                replacement = node.WithValue(null, -1);
+            else {
+                //the leaf goes away; a parent left with one child and no value merges into it
+                Node<Type> parent = path[--depth].WithoutChild(slots[depth]);
+                if(depth > 0 && parent.value == null && parent.children.length == 1)
+                    replacement = parent.children[0].WithKey(Concat(parent.key, parent.children[0].key));
+                else
+                    replacement = parent;
+            }
+
+            while(depth > 0) {
+                depth--;
+                replacement = path[depth].WithChild(slots[depth], replacement, -1);
+            }
+            if(root.compareAndSet(snapshot, replacement))
+                return node.value;
+        }
+    }
+
+    public int CountWithPrefix(CharSequence prefix) {
+        Node<Type> node = root.get();
+        int position = 0;
+
+        while(position < prefix.length()) {
+            int i = node.Find(prefix.charAt(position));
+            if(i < 0) return 0;
+
+            node = node.children[i];
+            int j = Match(node.key, prefix, position);
+            if(j < node.key.length && position + j < prefix.length()) return 0;
+            position += node.key.length;
+        }
+        return node.total;
+    }
+
+    //At most limit pairs (all when limit is negative) with keys starting with the prefix,
+    //in key order, from the trie as it was when the scan started
+    public java.util.Iterator<Map.Entry<String, Type>> PrefixScan(CharSequence prefix, int limit) {
+        Node<Type> node = root.get();
+        int position = 0;
+
+        while(position < prefix.length() && node != null) {
+            int i = node.Find(prefix.charAt(position));
+            if(i < 0) {
+                node = null;
+                break;
+            }
+
+            Node<Type> child = node.children[i];
+            int j = Match(child.key, prefix, position);
+            if(j < child.key.length && position + j < prefix.length()) {
+                node = null;
+                break;
+            }
+            node = child;
+            position += child.key.length;
+        }
+
+        StringBuilder key = new StringBuilder(prefix.length() + 16);
+        if(node != null) key.append(prefix, 0, position - node.key.length).append(node.key);
+        return new Scan(node, key, limit);
+    }
+
+    //Depth-first walk with an explicit stack: nodes have no parent links, a frame holds
+    //a node and the next of its children to visit
+    private class Scan implements java.util.Iterator<Map.Entry<String, Type>> {
+        private Node<Type>[] nodes = new Node[16];
+        private int[] next = new int[16];
+        private int depth, limit;
+        private StringBuilder key;
+        private Node<Type> current;
+
+        Scan(Node<Type> top, StringBuilder _key, int _limit) {
+            key = _key;
+            limit = _limit;
+            if(top == null) return;
+
+            nodes[0] = top;
+            depth = 1;
+            current = top.value != null ? top : Advance();
+        }
+
+        //Next node holding a value below the stack, or null
+        private Node<Type> Advance() {
+            while(depth > 0) {
+                Node<Type> node = nodes[depth - 1];
+
+                if(next[depth - 1] == node.children.length) {
+                    key.setLength(key.length() - node.key.length);
+                    depth--;
+                    continue;
+                }
+
+                Node<Type> child = node.children[next[depth - 1]++];
+                if(depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth << 1);
+                    next = Arrays.copyOf(next, depth << 1);
+                }
+                nodes[depth] = child;
+                next[depth++] = 0;
+                key.append(child.key);
+
+                if(child.value != null) return child;
+            }
+            return null;
+        }
+
+        public boolean hasNext() {
+            return current != null && limit != 0;
+        }
+
+        public Map.Entry<String, Type> next() {
+            if(!hasNext()) throw new NoSuchElementException();
+
+            Map.Entry<String, Type> entry = new AbstractMap.SimpleImmutableEntry<String, Type>(key.toString(), current.value);
+            current = Advance();
+            limit--;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+
+package pkgclass.hashmap;
+
+//String -> double table without boxing or per-entry nodes
+class DoubleHash extends PrimitiveHash {
+    private double[] values;
+    private double missingValue;
+
+    public DoubleHash() {
+        this(16, 0, HashFunction.STRING_MIX);
+    }
+
+    public DoubleHash(int initialCapacity, double _missingValue, HashFunction _hashFunction) {
+        super(initialCapacity, _hashFunction);
+        values = new double[GetCapacity()];
+        missingValue = _missingValue;
+    }
+
+    protected Object SwapValues(int capacity) {
+        double[] old = values;
+        values = new double[capacity];
+        return old;
+    }
+
+    protected void MoveValue(Object oldValues, int from, int to) {
+        values[to] = ((double[])oldValues)[from];
+    }
+
+    protected void ShiftValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    //Value for the key, or the missing value given to the constructor
+    public double Get(String key) {
+        int slot = Find(key);
+        return slot < 0 ? missingValue : values[slot];
+    }
+
+    public void Put(String key, double value) {
+        int slot = Claim(key);
+        values[slot < 0 ? -slot - 1 : slot] = value;
+    }
+
+    //Adds delta to the value (starting from zero for a new key) and returns the sum
+    public double AddTo(String key, double delta) {
+        int slot = Claim(key);
+        if(slot < 0) return values[-slot - 1] = delta;
+        return values[slot] += delta;
+    }
+
+    public double GetValue(int slot) {
+        return values[slot];
+    }
+}
@@ -0,0 +1,9 @@
+
+package pkgclass.hashmap;
+
+//Called after the cache has dropped an entry on its own
+interface EvictionListener<Type> {
+    enum Cause { SIZE, EXPIRED }
+
+    void OnEviction(String key, Type value, Cause cause);
+}
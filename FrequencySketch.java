@@ -0,0 +1,58 @@
+
+package pkgclass.hashmap;
+
+//Count-min sketch of 4-bit counters estimating how often a key hash was seen;
+//every counter is halved once the sample is full, so old popularity fades
+class FrequencySketch {
+    private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] table;
+    private int mask, additions, sampleSize;
+
+    FrequencySketch(long maximumSize) {
+        int size = OpenAddressingStorage.TableSizeFor((int)Math.min(Math.max(maximumSize, 16), 1 << 24));
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    private int IndexOf(int hash, int row) {
+        long h = (hash + SEED[row]) * SEED[row];
+        h += h >>> 32;
+        return (int)h & mask;
+    }
+
+    public int Frequency(int hash) {
+        int start = (hash & 3) << 2, frequency = 15;
+
+        for(int row = 0; row < 4; row++) {
+            int offset = (start + row) << 2;
+            int count = (int)((table[IndexOf(hash, row)] >>> offset) & 15);
+            if(count < frequency) frequency = count;
+        }
+        return frequency;
+    }
+
+    public void Increment(int hash) {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+
+        for(int row = 0; row < 4; row++) {
+            int index = IndexOf(hash, row), offset = (start + row) << 2;
+            if(((table[index] >>> offset) & 15) != 15) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if(added && ++additions == sampleSize)
+            Reset();
+    }
+
+    private void Reset() {
+        for(int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        additions >>>= 1;
+    }
+}
@@ -0,0 +1,314 @@
+
+package classtrie;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import codec.ValueCodec;
+
+//Read-only Trie compiled into one buffer of node records in depth-first order, so a
+//node's first child follows it directly and a subtree is one contiguous range.
+//References are buffer offsets, which makes the buffer position independent: it may
+//live on the heap, in a direct buffer or in a mapped file. Record of a node:
+//[int key length][int value number or -1][int values in the subtree][int child count]
+//[char labels, padded to 4 bytes][int child offsets][char key, padded to 4 bytes]
+//
+//File: [int magic][int version][int records size][int value count], the records, then
+//an int offset per value into the value area and the values in ValueCodec form. An opened
+//file is mapped and read in place, nothing is decoded until a value is asked for
+class FrozenTrie<Type> {
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int MAGIC = 0x54524945;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_LENGTH = 0;
+    private static final int VALUE = 4;
+    private static final int TOTAL = 8;
+    private static final int CHILD_COUNT = 12;
+    private static final int LABELS = 16;
+
+    private ByteBuffer buffer;
+    private int root;
+    //values in key order: the value number of a key is its rank; an opened file has no
+    //array but the offsets and the encoded values
+    private Object[] values;
+    private ByteBuffer valueBuffer;
+    private int valueCount;
+
+    FrozenTrie(ByteBuffer _buffer, int _root, Object[] _values) {
+        buffer = _buffer;
+        root = _root;
+        values = _values;
+        valueCount = _values.length;
+    }
+
+    private FrozenTrie(ByteBuffer _buffer, ByteBuffer _valueBuffer, int _valueCount) {
+        buffer = _buffer;
+        valueBuffer = _valueBuffer;
+        valueCount = _valueCount;
+    }
+
+    //Values must be null, boxed primitives or strings, as ValueCodec writes them
+    public void Save(String path) throws IOException {
+        int[] offsets = new int[valueCount];
+        int valueBytes = 4 * valueCount;
+        for(int i = 0; i < valueCount; i++) {
+            offsets[i] = valueBytes;
+            valueBytes += ValueCodec.SizeOf(GetValue(i));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(buffer.capacity()).putInt(valueCount).flip();
+
+        ByteBuffer encoded = ByteBuffer.allocate(valueBytes).order(BYTE_ORDER);
+        for(int i = 0; i < valueCount; i++) {
+            encoded.putInt(4 * i, offsets[i]);
+            ValueCodec.Write(encoded, offsets[i], GetValue(i));
+        }
+
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            ByteBuffer[] parts = {header, buffer.duplicate(), encoded};
+            parts[1].clear();
+            long remaining = HEADER_SIZE + buffer.capacity() + valueBytes;
+            while(remaining > 0)
+                remaining -= channel.write(parts);
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    //Maps the file read-only; lookups and scans then run on the mapped pages, which
+    //processes opening the same file share through the page cache
+    public static <Type> FrozenTrie<Type> Open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+        try {
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Trie file is over 2 GB: " + path);
+
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(BYTE_ORDER);
+            if(file.capacity() < HEADER_SIZE || file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+                throw new IOException("Not a trie file: " + path);
+
+            int recordBytes = file.getInt(8), valueCount = file.getInt(12);
+            if(HEADER_SIZE + (long)recordBytes + 4L * valueCount > file.capacity())
+                throw new IOException("Truncated trie file: " + path);
+
+            file.position(HEADER_SIZE).limit(HEADER_SIZE + recordBytes);
+            ByteBuffer records = file.slice().order(BYTE_ORDER);
+            file.limit(file.capacity()).position(HEADER_SIZE + recordBytes);
+            ByteBuffer encoded = file.slice().order(BYTE_ORDER);
+
+            return new FrozenTrie<Type>(records, encoded, valueCount);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    public static int RecordSize(int keyLength, int childCount) {
+        return LABELS + Align(2 * childCount) + 4 * childCount + Align(2 * keyLength);
+    }
+
+    private static int Align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    //Writes the record of a node at the position; the child offsets are filled in later
+    public static void WriteRecord(ByteBuffer buffer, int position, char[] key, int offset, int length,
+    int value, int total, char[] labels, int childCount) {
+        buffer.putInt(position + KEY_LENGTH, length);
+        buffer.putInt(position + VALUE, value);
+        buffer.putInt(position + TOTAL, total);
+        buffer.putInt(position + CHILD_COUNT, childCount);
+        for(int i = 0; i < childCount; i++)
+            buffer.putChar(position + LABELS + 2 * i, labels[i]);
+
+        int keyPosition = KeyPosition(position, childCount);
+        for(int i = 0; i < length; i++)
+            buffer.putChar(keyPosition + 2 * i, key[offset + i]);
+    }
+
+    public static int ChildSlot(int position, int childCount, int i) {
+        return position + LABELS + Align(2 * childCount) + 4 * i;
+    }
+
+    private static int KeyPosition(int position, int childCount) {
+        return ChildSlot(position, childCount, childCount);
+    }
+
+    private int KeyLength(int node)     { return buffer.getInt(node + KEY_LENGTH); }
+    private int ValueOf(int node)       { return buffer.getInt(node + VALUE); }
+    private int Total(int node)         { return buffer.getInt(node + TOTAL); }
+    private int ChildCount(int node)    { return buffer.getInt(node + CHILD_COUNT); }
+
+    private int Child(int node, int i) {
+        return buffer.getInt(ChildSlot(node, ChildCount(node), i));
+    }
+
+    private char KeyChar(int node, int i) {
+        return buffer.getChar(KeyPosition(node, ChildCount(node)) + 2 * i);
+    }
+
+    //Offset of the child with the label, or -1; labels are sorted, searched by halving
+    private int FindChild(int node, char label) {
+        int count = ChildCount(node), low = 0, high = count - 1;
+
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            char c = buffer.getChar(node + LABELS + 2 * middle);
+
+            if(c < label) low = middle + 1;
+            else if(c > label) high = middle - 1;
+            else return buffer.getInt(ChildSlot(node, count, middle));
+        }
+        return -1;
+    }
+
+    //Length of the common part of the node key and the key from the position
+    private int Match(int node, int length, CharSequence key, int position) {
+        int keyPosition = KeyPosition(node, ChildCount(node)), j = 0;
+        length = Math.min(length, key.length() - position);
+
+        while(j < length && buffer.getChar(keyPosition + 2 * j) == key.charAt(position + j))
+            j++;
+        return j;
+    }
+
+    //Highest node whose key starts with the prefix (the node of the key itself when exact), or -1
+    private int Locate(CharSequence key, boolean exact) {
+        int node = root, position = 0;
+
+        while(position < key.length()) {
+            node = FindChild(node, key.charAt(position));
+            if(node < 0) return -1;
+
+            int length = KeyLength(node), j = Match(node, length, key, position);
+            if(j < length && (exact || position + j < key.length())) return -1;
+            position += length;
+        }
+        return node;
+    }
+
+    public int GetSize() {
+        return Total(root);
+    }
+
+    public long GetMemoryBytes() {
+        return buffer.capacity();
+    }
+
+    private Type GetValue(int number) {
+        if(values != null) return (Type)values[number];
+        return (Type)ValueCodec.Read(valueBuffer, valueBuffer.getInt(4 * number));
+    }
+
+    public Type FindElementByKey(CharSequence key) {
+        int node = Locate(key, true);
+        if(node < 0 || ValueOf(node) < 0) return null;
+        return GetValue(ValueOf(node));
+    }
+
+    public boolean ContainsKey(CharSequence key) {
+        int node = Locate(key, true);
+        return node >= 0 && ValueOf(node) >= 0;
+    }
+
+    public int CountWithPrefix(CharSequence prefix) {
+        int node = Locate(prefix, false);
+        return node < 0 ? 0 : Total(node);
+    }
+
+    //At most limit pairs (all when limit is negative) with keys starting with the prefix,
+    //in key order; the walk reads the subtree range front to back
+    public java.util.Iterator<Map.Entry<String, Type>> PrefixScan(CharSequence prefix, int limit) {
+        int node = root, position = 0;
+
+        while(position < prefix.length()) {
+            int child = FindChild(node, prefix.charAt(position));
+            if(child < 0) return new Scan(-1, null, 0);
+
+            int length = KeyLength(child), j = Match(child, length, prefix, position);
+            if(j < length && position + j < prefix.length()) return new Scan(-1, null, 0);
+            node = child;
+            position += length;
+        }
+
+        //the prefix may end inside the node key, the scan starts from the whole node key
+        StringBuilder key = new StringBuilder(position + 16);
+        int length = KeyLength(node);
+        key.append(prefix, 0, position - length);
+        for(int j = 0; j < length; j++)
+            key.append(KeyChar(node, j));
+        return new Scan(node, key, limit);
+    }
+
+    //Depth-first walk with an explicit stack of node offsets and next child numbers
+    private class Scan implements java.util.Iterator<Map.Entry<String, Type>> {
+        private int[] nodes = new int[16], next = new int[16];
+        private int depth, limit, current = -1;
+        private StringBuilder key;
+
+        Scan(int top, StringBuilder _key, int _limit) {
+            key = _key;
+            limit = _limit;
+            if(top < 0) return;
+
+            nodes[0] = top;
+            depth = 1;
+            current = ValueOf(top) >= 0 ? top : Advance();
+        }
+
+        private int Advance() {
+            while(depth > 0) {
+                int node = nodes[depth - 1];
+
+                if(next[depth - 1] == ChildCount(node)) {
+                    key.setLength(key.length() - KeyLength(node));
+                    depth--;
+                    continue;
+                }
+
+                int child = Child(node, next[depth - 1]++);
+                if(depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth << 1);
+                    next = Arrays.copyOf(next, depth << 1);
+                }
+                nodes[depth] = child;
+                next[depth++] = 0;
+
+                int length = KeyLength(child);
+                for(int j = 0; j < length; j++)
+                    key.append(KeyChar(child, j));
+
+                if(ValueOf(child) >= 0) return child;
+            }
+            return -1;
+        }
+
+        public boolean hasNext() {
+            return current >= 0 && limit != 0;
+        }
+
+        public Map.Entry<String, Type> next() {
+            if(!hasNext()) throw new NoSuchElementException();
+
+            Map.Entry<String, Type> entry = new AbstractMap.SimpleImmutableEntry<String, Type>(key.toString(), GetValue(ValueOf(current)));
+            current = Advance();
+            limit--;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+
+package matrix;
+
+import java.util.stream.IntStream;
+
+//C += A * B for row-major operands, each given as an array, the offset of its first cell
+//and the row stride. B is packed once into panels of NR columns, each panel stored k by
+//k, that is transposed into the order the kernel reads it. The kernel keeps an MR x NR
+//block of C in registers and runs over a KC long block of k, so a panel block stays in
+//L1 and the MC rows of A it meets stay in L2. Output tiles of MC rows and NC columns are
+//independent and go to the fork-join pool
+class Gemm {
+    private static final int MR = 4;
+    private static final int NR = 4;
+    private static final int MC = 64;
+    private static final int NC = 128;
+    private static final int KC = 128;
+    //below this many multiply-adds the pool costs more than it gives
+    private static final long PARALLEL_WORK = 1L << 21;
+
+    //a is n x k, b is k x m, c is n x m
+    public static void Multiply(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+    double[] c, int cOffset, int cStride, int n, int k, int m) {
+        if(n == 0 || k == 0 || m == 0) return;
+
+        double[] packed = Pack(b, bOffset, bStride, k, m);
+        Operands operands = new Operands(a, aOffset, aStride, packed, c, cOffset, cStride, n, k, m);
+        int rowTiles = (n + MC - 1) / MC, columnTiles = (m + NC - 1) / NC;
+
+        if((long)n * k * m < PARALLEL_WORK) {
+            for(int t = 0; t < rowTiles * columnTiles; t++)
+                Tile(operands, t / columnTiles, t % columnTiles);
+            return;
+        }
+        IntStream.range(0, rowTiles * columnTiles).parallel().forEach(t ->
+            Tile(operands, t / columnTiles, t % columnTiles));
+    }
+
+    private static final class Operands {
+        final double[] a, packed, c;
+        final int aOffset, aStride, cOffset, cStride, n, k, m;
+
+        Operands(double[] _a, int _aOffset, int _aStride, double[] _packed, double[] _c, int _cOffset, int _cStride,
+        int _n, int _k, int _m) {
+            a = _a;
+            aOffset = _aOffset;
+            aStride = _aStride;
+            packed = _packed;
+            c = _c;
+            cOffset = _cOffset;
+            cStride = _cStride;
+            n = _n;
+            k = _k;
+            m = _m;
+        }
+    }
+
+    //Panel p holds columns [p * NR, p * NR + NR) of b at p * k * NR, row after row; the
+    //columns past m are zeros
+    private static double[] Pack(double[] b, int bOffset, int bStride, int k, int m) {
+        int panels = (m + NR - 1) / NR;
+        double[] packed = new double[panels * k * NR];
+
+        for(int p = 0; p < panels; p++) {
+            int column = p * NR, width = Math.min(NR, m - column), base = p * k * NR;
+            for(int l = 0; l < k; l++)
+                for(int j = 0; j < width; j++)
+                    packed[base + l * NR + j] = b[bOffset + l * bStride + column + j];
+        }
+        return packed;
+    }
+
+    private static void Tile(Operands o, int rowTile, int columnTile) {
+        int n = o.n, k = o.k, m = o.m;
+        int rowFrom = rowTile * MC, rowTo = Math.min(n, rowFrom + MC);
+        int panelFrom = columnTile * NC / NR, panelTo = (Math.min(m, (columnTile + 1) * NC) + NR - 1) / NR;
+
+        for(int l = 0; l < k; l += KC) {
+            int depth = Math.min(KC, k - l);
+
+            for(int p = panelFrom; p < panelTo; p++) {
+                int column = p * NR, width = Math.min(NR, m - column), base = p * k * NR + l * NR;
+
+                int i = rowFrom;
+                for(; i + MR <= rowTo && width == NR; i += MR)
+                    Kernel(o, i, column, l, depth, base);
+                for(; i < rowTo; i++)
+                    Edge(o, i, column, width, l, depth, base);
+            }
+        }
+    }
+
+    //A full MR x NR block: sixteen sums in locals, one pass over the four rows of a and the panel
+    private static void Kernel(Operands o, int i, int column, int l, int depth, int base) {
+        double[] a = o.a, packed = o.packed, c = o.c;
+        int a0 = o.aOffset + i * o.aStride + l, a1 = a0 + o.aStride, a2 = a1 + o.aStride, a3 = a2 + o.aStride;
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0, c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0, c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for(int q = 0, x = base; q < depth; q++, x += NR) {
+            double b0 = packed[x], b1 = packed[x + 1], b2 = packed[x + 2], b3 = packed[x + 3];
+            double v0 = a[a0 + q], v1 = a[a1 + q], v2 = a[a2 + q], v3 = a[a3 + q];
+
+            c00 += v0 * b0; c01 += v0 * b1; c02 += v0 * b2; c03 += v0 * b3;
+            c10 += v1 * b0; c11 += v1 * b1; c12 += v1 * b2; c13 += v1 * b3;
+            c20 += v2 * b0; c21 += v2 * b1; c22 += v2 * b2; c23 += v2 * b3;
+            c30 += v3 * b0; c31 += v3 * b1; c32 += v3 * b2; c33 += v3 * b3;
+        }
+
+        int r0 = o.cOffset + i * o.cStride + column, r1 = r0 + o.cStride, r2 = r1 + o.cStride, r3 = r2 + o.cStride;
+        c[r0] += c00; c[r0 + 1] += c01; c[r0 + 2] += c02; c[r0 + 3] += c03;
+        c[r1] += c10; c[r1 + 1] += c11; c[r1 + 2] += c12; c[r1 + 3] += c13;
+        c[r2] += c20; c[r2 + 1] += c21; c[r2 + 2] += c22; c[r2 + 3] += c23;
+        c[r3] += c30; c[r3 + 1] += c31; c[r3 + 2] += c32; c[r3 + 3] += c33;
+    }
+
+    //One row against a panel, for the rows and columns left over by the full blocks
+    private static void Edge(Operands o, int i, int column, int width, int l, int depth, int base) {
+        int row = o.aOffset + i * o.aStride + l, target = o.cOffset + i * o.cStride + column;
+
+        for(int j = 0; j < width; j++) {
+            double sum = 0;
+            for(int q = 0, x = base + j; q < depth; q++, x += NR)
+                sum += o.a[row + q] * o.packed[x];
+            o.c[target + j] += sum;
+        }
+    }
+}
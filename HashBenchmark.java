@@ -0,0 +1,127 @@
+
+package pkgclass.hashmap;
+
+import benchmark.Benchmark;
+import java.io.IOException;
+import java.util.Random;
+
+//Hash and its storage engines: Insert, FindElementByKey, Delete and iteration
+//for several key counts and key distributions
+public class HashBenchmark {
+    private static final int[] KEY_COUNTS = {1000, 100000, 1000000};
+    private static final String[] DISTRIBUTIONS = {"sequential", "random", "prefixed"};
+    private static final String[] ENGINES = {"chained", "open", "offheap"};
+
+    public static String[] MakeKeys(String distribution, int count, long seed) {
+        Random random = new Random(seed);
+        String[] keys = new String[count];
+
+        for(int i = 0; i < count; i++) {
+            if(distribution.equals("sequential"))
+                keys[i] = "key" + i;
+            else if(distribution.equals("prefixed"))
+                keys[i] = "https://example.com/catalog/items/" + i;
+            else {
+                char[] chars = new char[4 + random.nextInt(13)];
+                for(int j = 0; j < chars.length; j++)
+                    chars[j] = (char)('a' + random.nextInt(26));
+                keys[i] = new String(chars) + i;
+            }
+        }
+        return keys;
+    }
+
+    public static Hash MakeHash(String engine) {
+        try {
+            if(engine.equals("open")) return new Hash(16, 0.2, 0.8);
+            if(engine.equals("offheap")) return new Hash(16, null);
+            return new Hash();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Hash Fill(String engine, String[] keys) {
+        Hash hash = MakeHash(engine);
+        for(int i = 0; i < keys.length; i++)
+            hash.Insert(keys[i], i);
+        return hash;
+    }
+
+    public static void Close(Hash hash) {
+        try {
+            hash.Close();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Benchmark benchmark = new Benchmark(args);
+
+        for(int c = 0; c < KEY_COUNTS.length; c++)
+            for(int d = 0; d < DISTRIBUTIONS.length; d++) {
+                final String[] keys = MakeKeys(DISTRIBUTIONS[d], KEY_COUNTS[c], 42);
+                final int[] probe = new int[keys.length];
+                Random random = new Random(7);
+                for(int i = 0; i < probe.length; i++)
+                    probe[i] = random.nextInt(keys.length);
+
+                for(int e = 0; e < ENGINES.length; e++) {
+                    final String engine = ENGINES[e];
+                    String[] params = {"engine", engine, "keys", "" + keys.length, "distribution", DISTRIBUTIONS[d]};
+
+                    benchmark.Measure("Hash.Insert", params, keys.length, new Benchmark.Operation() {
+                        public Object Run() {
+                            Hash hash = Fill(engine, keys);
+                            int size = hash.GetSize();
+                            Close(hash);
+                            return size;
+                        }
+                    });
+
+                    if(!benchmark.IsSelected("Hash.FindElementByKey") && !benchmark.IsSelected("Hash.DeleteInsert")
+                    && !benchmark.IsSelected("Hash.Iterate")) continue;
+
+                    final Hash hash = Fill(engine, keys);
+                    final Hash.Iterator iterator = hash.new Iterator(hash);
+
+                    benchmark.Measure("Hash.FindElementByKey", params, keys.length, new Benchmark.Operation() {
+                        public Object Run() {
+                            int found = 0;
+                            for(int i = 0; i < probe.length; i++) {
+                                iterator.GetElementByKey(keys[probe[i]]);
+                                if(iterator.IsDereferencable()) found++;
+                            }
+                            return found;
+                        }
+                    });
+
+                    //every key is inserted back at once, so the table stays full: the score is a delete and an insert
+                    benchmark.Measure("Hash.DeleteInsert", params, keys.length, new Benchmark.Operation() {
+                        public Object Run() {
+                            for(int i = 0; i < keys.length; i++) {
+                                hash.Delete(keys[probe[i]]);
+                                hash.Insert(keys[probe[i]], i);
+                            }
+                            return hash.GetSize();
+                        }
+                    });
+
+                    benchmark.Measure("Hash.Iterate", params, keys.length, new Benchmark.Operation() {
+                        public Object Run() {
+                            int count = 0;
+                            for(Hash.Iterator it = hash.new Iterator(hash); it.IsDereferencable(); it.AdwanceOne())
+                                count++;
+                            return count;
+                        }
+                    });
+                    hash.Close();
+                }
+            }
+
+        benchmark.Finish();
+    }
+}
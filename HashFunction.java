@@ -0,0 +1,71 @@
+
+package pkgclass.hashmap;
+
+//Key hashing strategy for Hash; implementations must not allocate
+interface HashFunction {
+    int Hash(String key);
+
+    //String.hashCode (cached inside String) with the high bits folded down
+    HashFunction STRING = new HashFunction() {
+        public int Hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    };
+
+    //FNV-1a over the UTF-16 code units
+    HashFunction FNV1A = new HashFunction() {
+        public int Hash(String key) {
+            int h = 0x811c9dc5;
+            for(int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                h = (h ^ (c & 0xff)) * 0x01000193;
+                h = (h ^ (c >>> 8)) * 0x01000193;
+            }
+            return h;
+        }
+    };
+
+    //MurmurHash3 x86_32 over pairs of code units, with the fmix32 finalizer
+    HashFunction MURMUR3 = new HashFunction() {
+        public int Hash(String key) {
+            int h = 0, length = key.length(), i;
+
+            for(i = 1; i < length; i += 2) {
+                int k = key.charAt(i - 1) | (key.charAt(i) << 16);
+                k *= 0xcc9e2d51;
+                k = Integer.rotateLeft(k, 15);
+                k *= 0x1b873593;
+                h ^= k;
+                h = Integer.rotateLeft(h, 13);
+                h = h * 5 + 0xe6546b64;
+            }
+
+            if((length & 1) == 1) {
+                int k = key.charAt(length - 1);
+                k *= 0xcc9e2d51;
+                k = Integer.rotateLeft(k, 15);
+                k *= 0x1b873593;
+                h ^= k;
+            }
+
+            return Mix(h ^ (2 * length));
+        }
+    };
+
+    //String.hashCode pushed through the murmur finalizer
+    HashFunction STRING_MIX = new HashFunction() {
+        public int Hash(String key) {
+            return Mix(key.hashCode());
+        }
+    };
+
+    static int Mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
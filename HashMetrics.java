@@ -0,0 +1,34 @@
+package pkgclass.hashmap;
+
+import metrics.OperationMetrics;
+
+//Metrics of a Hash. The shape of the table takes a walk over it, so it is computed when
+//JMX reads it, at most once a second, and never inside an operation. The Hash is not
+//thread-safe: while metrics are on it makes every change holding the lock of this
+//object, and the walk holds the same lock, so the copy is consistent
+public class HashMetrics extends OperationMetrics implements HashMetricsMBean {
+    //null once the Hash turned its metrics off
+    private Hash<?> hash;
+    private HashStatistics statistics = new HashStatistics(0, 0, new BucketStatistics(0));
+
+    HashMetrics(Hash<?> _hash) {
+        hash = _hash;
+    }
+
+    synchronized void Detach() {
+        hash = null;
+    }
+
+    public synchronized HashStatistics GetStatistics() {
+        if(hash != null && IsShapeDue())
+            statistics = hash.GetStatistics();
+        return statistics;
+    }
+
+    public synchronized int getEntries()    { return hash == null ? statistics.GetEntries() : hash.GetSize(); }
+    public long getRetainedBytes()          { return GetStatistics().GetRetainedBytes(); }
+    public int getBuckets()                 { return GetStatistics().GetBucketStatistics().GetBuckets(); }
+    public int getUsedBuckets()             { return GetStatistics().GetBucketStatistics().GetUsedBuckets(); }
+    public double getAverageChainLength()   { return GetStatistics().GetAverageChainLength(); }
+    public int getMaxChainLength()          { return GetStatistics().GetMaxChainLength(); }
+}
@@ -0,0 +1,13 @@
+package pkgclass.hashmap;
+
+import metrics.OperationMetricsMBean;
+
+//Attributes of an instrumented Hash; the shape of the table is at most a second old
+public interface HashMetricsMBean extends OperationMetricsMBean {
+    int getEntries();
+    long getRetainedBytes();
+    int getBuckets();
+    int getUsedBuckets();
+    double getAverageChainLength();
+    int getMaxChainLength();
+}
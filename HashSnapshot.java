@@ -0,0 +1,157 @@
+
+package pkgclass.hashmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import codec.ValueCodec;
+
+//Snapshot file: [int magic][int version][int hash function][int count], then count
+//entries of [int key length][UTF-8 key][tagged value], written and read sequentially.
+//The hash function is recorded by its number in FUNCTIONS, 0 for any other; keys are
+//hashed again on loading, so any function gives a correct table
+class HashSnapshot {
+    private static final int MAGIC = 0x48534e50;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final HashFunction[] FUNCTIONS = {null, HashFunction.STRING, HashFunction.FNV1A,
+        HashFunction.MURMUR3, HashFunction.STRING_MIX};
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    private HashSnapshot(FileChannel _channel) {
+        channel = _channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    public static void Save(Hash hash, String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            HashSnapshot snapshot = new HashSnapshot(channel);
+            snapshot.buffer.putInt(MAGIC).putInt(VERSION).putInt(FunctionNumber(hash.GetHashFunction())).putInt(hash.GetSize());
+
+            for(Hash.Iterator iterator = hash.new Iterator(hash);
+            iterator.IsDereferencable(); iterator.AdwanceOne())
+                snapshot.Write(iterator.GetKey(), iterator.Dereference());
+
+            snapshot.Flush();
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private static int FunctionNumber(HashFunction hashFunction) {
+        for(int i = 1; i < FUNCTIONS.length; i++)
+            if(FUNCTIONS[i] == hashFunction) return i;
+        return 0;
+    }
+
+    private void Write(String key, Object value) throws IOException {
+        int keyLength = ValueCodec.Utf8Length(key);
+        int length = 4 + keyLength + ValueCodec.SizeOf(value);
+
+        if(length > buffer.remaining()) {
+            Flush();
+            if(length > buffer.capacity())
+                buffer = ByteBuffer.allocateDirect(length);
+        }
+
+        int position = buffer.position();
+        buffer.putInt(position, keyLength);
+        ValueCodec.WriteUtf8(buffer, position + 4, key);
+        ValueCodec.Write(buffer, position + 4 + keyLength, value);
+        buffer.position(position + length);
+    }
+
+    private void Flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    //Builds an open addressing Hash sized for the whole snapshot; keys go straight
+    //into their slots since a snapshot never holds the same key twice. A null function
+    //takes the recorded one, STRING_MIX when it was a custom one
+    public static Hash Load(String path, HashFunction hashFunction) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+        try {
+            HashSnapshot snapshot = new HashSnapshot(channel);
+            snapshot.buffer.flip();
+
+            snapshot.Require(HEADER_SIZE);
+            if(snapshot.buffer.getInt() != MAGIC || snapshot.buffer.getInt() != VERSION)
+                throw new IOException("Not a hash snapshot: " + path);
+
+            int recorded = snapshot.buffer.getInt();
+            if(recorded < 0 || recorded >= FUNCTIONS.length)
+                throw new IOException("Unknown hash function " + recorded + " in " + path);
+            if(hashFunction == null)
+                hashFunction = recorded == 0 ? HashFunction.STRING_MIX : FUNCTIONS[recorded];
+
+            int count = snapshot.buffer.getInt();
+            double maxLoadFactor = OpenAddressingStorage.DEFAULT_MAX_LOAD_FACTOR;
+            Hash hash = new Hash((int)(count / maxLoadFactor) + 1,
+                OpenAddressingStorage.DEFAULT_MIN_LOAD_FACTOR, maxLoadFactor, hashFunction);
+
+            for(int i = 0; i < count; i++) {
+                snapshot.Require(4);
+                int keyLength = snapshot.buffer.getInt();
+
+                snapshot.Require(keyLength + 1);
+                int position = snapshot.buffer.position();
+                String key = ValueCodec.ReadUtf8(snapshot.buffer, position, keyLength);
+                snapshot.buffer.position(position + keyLength);
+
+                hash.InsertUnique(key, snapshot.ReadValue());
+            }
+            return hash;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private Object ReadValue() throws IOException {
+        int position = buffer.position();
+        int size = ValueCodec.FixedSize(buffer.get(position));
+
+        if(size < 0) {
+            Require(1 + 4);
+            position = buffer.position();
+            size = 1 + 4 + buffer.getInt(position + 1);
+        }
+
+        Require(size);
+        position = buffer.position();
+        Object value = ValueCodec.Read(buffer, position);
+        buffer.position(position + size);
+        return value;
+    }
+
+    //Makes at least count unread bytes available in the buffer
+    private void Require(int count) throws IOException {
+        if(buffer.remaining() >= count) return;
+
+        if(count > buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(count);
+            grown.put(buffer);
+            buffer = grown;
+        }
+        else buffer.compact();
+
+        while(buffer.position() < count)
+            if(channel.read(buffer) < 0)
+                throw new IOException("Truncated hash snapshot");
+        buffer.flip();
+    }
+}
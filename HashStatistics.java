@@ -0,0 +1,27 @@
+package pkgclass.hashmap;
+
+//Shape of a Hash, copied at the moment of the call: the chain length of an entry is
+//its lookup cost, the chain elements or probed slots compared before the key is found
+public class HashStatistics {
+    private int entries;
+    private long retainedBytes;
+    private BucketStatistics buckets;
+
+    HashStatistics(int _entries, long _retainedBytes, BucketStatistics _buckets) {
+        entries = _entries;
+        retainedBytes = _retainedBytes;
+        buckets = _buckets;
+    }
+
+    public int GetEntries()                     { return entries; }
+    public long GetRetainedBytes()              { return retainedBytes; }
+    public BucketStatistics GetBucketStatistics() { return buckets; }
+    public double GetAverageChainLength()       { return buckets.GetAverageCost(); }
+    public int GetMaxChainLength()              { return buckets.GetMaxCost(); }
+
+    public String toString() {
+        return "entries: " + entries + ", retained bytes: " + retainedBytes + ", buckets: " + buckets.GetUsedBuckets()
+            + " of " + buckets.GetBuckets() + ", average chain: " + String.format("%.3f", GetAverageChainLength())
+            + ", max chain: " + GetMaxChainLength();
+    }
+}
@@ -0,0 +1,54 @@
+
+package pkgclass.hashmap;
+
+//String -> int table without boxing or per-entry nodes
+class IntHash extends PrimitiveHash {
+    private int[] values;
+    private int missingValue;
+
+    public IntHash() {
+        this(16, 0, HashFunction.STRING_MIX);
+    }
+
+    public IntHash(int initialCapacity, int _missingValue, HashFunction _hashFunction) {
+        super(initialCapacity, _hashFunction);
+        values = new int[GetCapacity()];
+        missingValue = _missingValue;
+    }
+
+    protected Object SwapValues(int capacity) {
+        int[] old = values;
+        values = new int[capacity];
+        return old;
+    }
+
+    protected void MoveValue(Object oldValues, int from, int to) {
+        values[to] = ((int[])oldValues)[from];
+    }
+
+    protected void ShiftValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    //Value for the key, or the missing value given to the constructor
+    public int Get(String key) {
+        int slot = Find(key);
+        return slot < 0 ? missingValue : values[slot];
+    }
+
+    public void Put(String key, int value) {
+        int slot = Claim(key);
+        values[slot < 0 ? -slot - 1 : slot] = value;
+    }
+
+    //Adds delta to the value (starting from zero for a new key) and returns the sum
+    public int AddTo(String key, int delta) {
+        int slot = Claim(key);
+        if(slot < 0) return values[-slot - 1] = delta;
+        return values[slot] += delta;
+    }
+
+    public int GetValue(int slot) {
+        return values[slot];
+    }
+}
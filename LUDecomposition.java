@@ -0,0 +1,180 @@
+
+package matrix;
+
+import java.util.stream.IntStream;
+
+//PA = LU by Gaussian elimination with partial pivoting: at step k the row with the
+//largest value in column k below the diagonal becomes the pivot row, so no multiplier
+//exceeds 1 in magnitude. L (with a unit diagonal, not stored) and U are packed in one
+//row-major n x n array; P is kept as the original number of every row. The rows below
+//a pivot are eliminated independently of each other, and the columns of a many-column
+//right side are solved independently, so large steps of both go to the fork-join pool.
+//Rounding leaves small nonzero pivots in exactly singular matrices, so zero is judged
+//with a tolerance, in two ways. IsSingular uses the one Rank uses, n * the largest
+//magnitude * the double precision. Solve and Inverse refuse a pivot within n * the
+//double precision of the largest magnitude of its own row, which does not depend on
+//how the rows are scaled, so a badly scaled but regular matrix is still solved
+public class LUDecomposition {
+    //multiply-adds of a step below which it stays on the calling thread
+    private static final int PARALLEL_WORK = 1 << 16;
+    //columns of the right side solved by one task
+    private static final int COLUMN_BLOCK = 64;
+
+    private double[] lu;
+    private int[] pivot;
+    private int n, sign;
+    private boolean singular, unsolvable;
+    private double epsilon;
+
+    public LUDecomposition(Matrix matrix) {
+        if(matrix.GetHeight() != matrix.GetWidth())
+            throw new IllegalArgumentException("LU of a " + matrix.GetHeight() + "x" + matrix.GetWidth() + " matrix, it must be square");
+
+        n = matrix.GetHeight();
+        epsilon = RowEchelon.DefaultEpsilon(matrix);
+        lu = matrix.ToRowMajor();
+        pivot = new int[n];
+        for(int i = 0; i < n; i++)
+            pivot[i] = i;
+        sign = 1;
+
+        double[] rowScale = new double[n];
+        for(int i = 0; i < n * n; i++)
+            rowScale[i / n] = Math.max(rowScale[i / n], Math.abs(lu[i]));
+
+        for(int k = 0; k < n; k++) {
+            int p = k;
+            for(int i = k + 1; i < n; i++)
+                if(Math.abs(lu[i * n + k]) > Math.abs(lu[p * n + k]))
+                    p = i;
+
+            if(p != k) {
+                SwapRows(p, k);
+                sign = -sign;
+            }
+
+            double diagonal = lu[k * n + k];
+            if(Math.abs(diagonal) <= epsilon) singular = true;
+            if(Math.abs(diagonal) <= n * Math.ulp(1.0) * rowScale[pivot[k]]) unsolvable = true;
+            //the column is zero from the diagonal down: nothing to eliminate
+            if(diagonal == 0) continue;
+
+            final int step = k;
+            if((long)(n - k) * (n - k) < PARALLEL_WORK) {
+                for(int i = k + 1; i < n; i++)
+                    Eliminate(i, step);
+            }
+            else
+                IntStream.range(k + 1, n).parallel().forEach(i -> Eliminate(i, step));
+        }
+    }
+
+    //Row i loses its column k part; the multiplier takes its place, as the L of the row
+    private void Eliminate(int i, int k) {
+        double factor = lu[i * n + k] /= lu[k * n + k];
+        if(factor == 0) return;
+
+        for(int j = k + 1, a = i * n, b = k * n; j < n; j++)
+            lu[a + j] -= factor * lu[b + j];
+    }
+
+    private void SwapRows(int a, int b) {
+        for(int j = 0; j < n; j++) {
+            double t = lu[a * n + j];
+            lu[a * n + j] = lu[b * n + j];
+            lu[b * n + j] = t;
+        }
+        int t = pivot[a];
+        pivot[a] = pivot[b];
+        pivot[b] = t;
+    }
+
+    public int GetSize()            { return n; }
+    public boolean IsSingular()     { return singular; }
+    public double GetEpsilon()      { return epsilon; }
+
+    public double Determinant() {
+        double determinant = sign;
+        for(int i = 0; i < n; i++)
+            determinant *= lu[i * n + i];
+        return determinant;
+    }
+
+    //x with Ax = b
+    public double[] Solve(double[] b) {
+        if(b.length != n)
+            throw new IllegalArgumentException("Right side of length " + b.length + " for a " + n + "x" + n + " system");
+        CheckSingular();
+
+        double[] x = new double[n];
+        for(int i = 0; i < n; i++) {
+            double sum = b[pivot[i]];
+            for(int k = 0, a = i * n; k < i; k++)
+                sum -= lu[a + k] * x[k];
+            x[i] = sum;
+        }
+        for(int i = n - 1; i >= 0; i--) {
+            double sum = x[i];
+            for(int k = i + 1, a = i * n; k < n; k++)
+                sum -= lu[a + k] * x[k];
+            x[i] = sum / lu[i * n + i];
+        }
+        return x;
+    }
+
+    //X with AX = B, for all the columns of B at once: the substitutions subtract whole
+    //rows of X from each other, so they run along the rows of both arrays
+    public Matrix Solve(Matrix b) {
+        if(b.GetHeight() != n)
+            throw new IllegalArgumentException("Right side of height " + b.GetHeight() + " for a " + n + "x" + n + " system");
+        CheckSingular();
+
+        final int m = b.GetWidth();
+        double[] rows = b.ToRowMajor();
+        final double[] x = new double[n * m];
+        for(int i = 0; i < n; i++)
+            System.arraycopy(rows, pivot[i] * m, x, i * m, m);
+
+        int blocks = (m + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        if(blocks == 1 || (long)n * n * m < PARALLEL_WORK)
+            Substitute(x, m, 0, m);
+        else
+            IntStream.range(0, blocks).parallel().forEach(c ->
+                Substitute(x, m, c * COLUMN_BLOCK, Math.min(m, c * COLUMN_BLOCK + COLUMN_BLOCK)));
+        return new Matrix(n, m, x);
+    }
+
+    //Forward and back substitution in columns [from, to) of the permuted right side x
+    private void Substitute(double[] x, int m, int from, int to) {
+        for(int i = 0; i < n; i++)
+            for(int k = 0; k < i; k++)
+                Subtract(x, m, i, k, lu[i * n + k], from, to);
+
+        for(int i = n - 1; i >= 0; i--) {
+            for(int k = i + 1; k < n; k++)
+                Subtract(x, m, i, k, lu[i * n + k], from, to);
+
+            double diagonal = lu[i * n + i];
+            for(int j = i * m + from; j < i * m + to; j++)
+                x[j] /= diagonal;
+        }
+    }
+
+    //row i -= factor * row k, in the columns [from, to)
+    private static void Subtract(double[] x, int m, int i, int k, double factor, int from, int to) {
+        if(factor == 0) return;
+        for(int j = from, a = i * m, b = k * m; j < to; j++)
+            x[a + j] -= factor * x[b + j];
+    }
+
+    public Matrix Inverse() {
+        Matrix identity = new Matrix(n, n);
+        for(int i = 0; i < n; i++)
+            identity.SetCell(i, i, 1);
+        return Solve(identity);
+    }
+
+    private void CheckSingular() {
+        if(unsolvable) throw new ArithmeticException("Matrix is singular");
+    }
+}
@@ -0,0 +1,68 @@
+
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Latencies in power-of-two buckets of nanoseconds: bucket b holds [2^(b-1), 2^b), so
+//a percentile is exact to a factor of two. One writer and any number of readers
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    public void Add(long nanos) {
+        Add(nanos, 1);
+    }
+
+    //times samples of the same latency, as the average of a batch
+    public void Add(long nanos, int times) {
+        if(nanos < 0) nanos = 0;
+        buckets.addAndGet(64 - Long.numberOfLeadingZeros(nanos), times);
+        count.addAndGet(times);
+        sum.addAndGet(nanos * times);
+        if(nanos > max.get()) max.set(nanos);
+    }
+
+    public long GetCount()      { return count.get(); }
+    public long GetMax()        { return max.get(); }
+
+    public double GetMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    //Upper bound of the bucket holding the p-th fraction of the samples, p in [0, 1]
+    public long GetPercentile(double p) {
+        long n = count.get(), rank = (long)Math.ceil(p * n), seen = 0;
+        if(n == 0) return 0;
+
+        for(int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if(seen >= rank && seen > 0)
+                return b == 0 ? 0 : Math.min((1L << b) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    public long[] GetBuckets() {
+        long[] copy = new long[BUCKETS];
+        for(int b = 0; b < BUCKETS; b++)
+            copy[b] = buckets.get(b);
+        return copy;
+    }
+
+    public void Reset() {
+        for(int b = 0; b < BUCKETS; b++)
+            buckets.set(b, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public String toString() {
+        return "count: " + GetCount() + ", mean: " + String.format("%.1f", GetMean()) + " ns, p50: " + GetPercentile(0.5)
+            + " ns, p99: " + GetPercentile(0.99) + " ns, max: " + GetMax() + " ns";
+    }
+}
@@ -0,0 +1,54 @@
+
+package pkgclass.hashmap;
+
+//String -> long table without boxing or per-entry nodes
+class LongHash extends PrimitiveHash {
+    private long[] values;
+    private long missingValue;
+
+    public LongHash() {
+        this(16, 0, HashFunction.STRING_MIX);
+    }
+
+    public LongHash(int initialCapacity, long _missingValue, HashFunction _hashFunction) {
+        super(initialCapacity, _hashFunction);
+        values = new long[GetCapacity()];
+        missingValue = _missingValue;
+    }
+
+    protected Object SwapValues(int capacity) {
+        long[] old = values;
+        values = new long[capacity];
+        return old;
+    }
+
+    protected void MoveValue(Object oldValues, int from, int to) {
+        values[to] = ((long[])oldValues)[from];
+    }
+
+    protected void ShiftValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    //Value for the key, or the missing value given to the constructor
+    public long Get(String key) {
+        int slot = Find(key);
+        return slot < 0 ? missingValue : values[slot];
+    }
+
+    public void Put(String key, long value) {
+        int slot = Claim(key);
+        values[slot < 0 ? -slot - 1 : slot] = value;
+    }
+
+    //Adds delta to the value (starting from zero for a new key) and returns the sum
+    public long AddTo(String key, long delta) {
+        int slot = Claim(key);
+        if(slot < 0) return values[-slot - 1] = delta;
+        return values[slot] += delta;
+    }
+
+    public long GetValue(int slot) {
+        return values[slot];
+    }
+}
@@ -3,76 +3,146 @@ package matrix;
 import org.junit.Test;
 import junit.framework.*;
 
+//Cells are kept row-major in one double[]: cell (i, j) is data[offset + i * stride + j].
+//A row, a column or a block of a matrix is a view over the same array with its own
+//offset and size, made without copying; writes through a view change the matrix
 public class Matrix {
-    private double[][] cell;
+    private double[] data;
+    private int offset, stride;
     private int width, height;
+    //writes through this matrix or a view of the same array; a cached factorization is
+    //valid while the count it was made at is current. A wrapped array written from
+    //outside is not seen
+    private int[] modifications = new int[1];
+    private LUDecomposition lu;
+    private int luModifications;
   
     public Matrix() {
         width = 0;
         height = 0;
+        data = new double[0];
     }
     
     public Matrix(int _height, int _width) {
         width = _width;
         height = _height;
-        cell = new double[height][width];
+        stride = _width;
+        data = new double[height * width];
     }
     
     public Matrix(int _height, int _width, int anyValue) {
-        width = _width;
-        height = _height;
-        cell = new double[height][width];
+        this(_height, _width);
+        java.util.Arrays.fill(data, anyValue);
+    }
+    
+    //Copies the cells, the matrix does not share rows with the array
+    public Matrix(double[][] matrix) {
+        this(matrix.length, matrix.length == 0 ? 0 : matrix[0].length);
         
         for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++)
-                cell[i][j] = anyValue;
+            System.arraycopy(matrix[i], 0, data, i * stride, width);
     }
     
-    public Matrix(double[][] matrix) {
-        width = matrix.length;
-        height = matrix.length;
-        cell = (double[][])matrix.clone();
+    //Wraps a row-major array without copying it
+    public Matrix(int _height, int _width, double[] _data) {
+        this(_data, 0, _width, _height, _width, new int[1]);
+    }
+    
+    private Matrix(double[] _data, int _offset, int _stride, int _height, int _width, int[] _modifications) {
+        modifications = _modifications;
+        data = _data;
+        offset = _offset;
+        stride = _stride;
+        height = _height;
+        width = _width;
+    }
+    
+    private int Index(int i, int j) {
+        return offset + i * stride + j;
+    }
+    
+    public double GetCell(int _height, int _width) {
+        return data[Index(_height, _width)];
+    }
+    
+    public void SetCell(int _height, int _width, double value) {
+        data[Index(_height, _width)] = value;
+        modifications[0]++;
+    }
+    
+    //Views: share the cells of this matrix
+    public Matrix Row(int i) {
+        return new Matrix(data, Index(i, 0), stride, 1, width, modifications);
+    }
+    
+    public Matrix Column(int j) {
+        return new Matrix(data, Index(0, j), stride, height, 1, modifications);
+    }
+    
+    public Matrix Submatrix(int row, int column, int _height, int _width) {
+        if(row < 0 || column < 0 || row + _height > height || column + _width > width)
+            throw new IndexOutOfBoundsException("Submatrix " + _height + "x" + _width + " at (" + row + ", " + column
+                + ") of a " + height + "x" + width + " matrix");
+        return new Matrix(data, Index(row, column), stride, _height, _width, modifications);
+    }
+    
+    //A dense copy, not sharing cells with this matrix
+    public Matrix Copy() {
+        Matrix anyMatrix = new Matrix(height, width);
+        anyMatrix.Assign(this);
+        return anyMatrix;
+    }
+    
+    //Dense row-major copy of the cells
+    public double[] ToRowMajor() {
+        double[] copy = new double[height * width];
+        for(int i = 0; i < height; i++)
+            System.arraycopy(data, Index(i, 0), copy, i * width, width);
+        return copy;
     }
     
-    public void SetCell(int _height, int _width, int value) {
-        cell[_height][_width] = value;
+    public double[][] ToArray() {
+        double[][] matrix = new double[height][width];
+        for(int i = 0; i < height; i++)
+            System.arraycopy(data, Index(i, 0), matrix[i], 0, width);
+        return matrix;
     }
     
     public void Assign(Matrix matrix) {
         if(height != matrix.height || width != matrix.width) return;
         
         for(int i = 0; i < height; i++) 
-            for(int j = 0; j < width; j++) 
-                cell[i][j] = matrix.cell[i][j];
+            System.arraycopy(matrix.data, matrix.Index(i, 0), data, Index(i, 0), width);
+        modifications[0]++;
     }
     
     public void Assign(double[][] matrix) {
-        if(height != matrix.length || width != matrix.length) return;
+        if(height != matrix.length || (height > 0 && width != matrix[0].length)) return;
         
         for(int i = 0; i < height; i++) 
-            for(int j = 0; j < width; j++) 
-                cell[i][j] = matrix[i][j];
+            System.arraycopy(matrix[i], 0, data, Index(i, 0), width);
+        modifications[0]++;
     }
     
     public boolean Equal(Matrix matrix) {
         if(height != matrix.height || width != matrix.width) return false;
         
         for(int i = 0; i < height; i++) 
-            for(int j = 0; j < width; j++) 
-                if(cell[i][j] != matrix.cell[i][j])
+            for(int j = 0, a = Index(i, 0), b = matrix.Index(i, 0); j < width; j++) 
+                if(data[a + j] != matrix.data[b + j])
                     return false;
                 
         return true;
     }
     
     public boolean Equal(double[][] matrix) {
-        if(height != matrix.length || width != matrix.length) return false;
+        if(height != matrix.length || (height > 0 && width != matrix[0].length)) return false;
         
         double EPS = 0.1;
         
         for(int i = 0; i < height; i++) 
-            for(int j = 0; j < width; j++) 
-                if(Math.abs(cell[i][j] - matrix[i][j]) > EPS)
+            for(int j = 0, a = Index(i, 0); j < width; j++) 
+                if(Math.abs(data[a + j] - matrix[i][j]) > EPS)
                     return false;
                 
         return true;
@@ -81,7 +151,7 @@ public class Matrix {
     public void Print() {
         for(int i = 0; i < height; i++) {
             for(int j = 0; j < width; j++)
-                System.out.print(cell[i][j] + " ");
+                System.out.print(data[Index(i, j)] + " ");
             System.out.println();
         }
     }
@@ -89,12 +159,11 @@ public class Matrix {
     public Matrix Add(Matrix matrix) {
         if(height != matrix.height || width != matrix.width) return this;
         
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
+        Matrix anyMatrix = Copy();
         
         for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++)
-                anyMatrix.cell[i][j] += matrix.cell[i][j];
+            for(int j = 0, a = anyMatrix.Index(i, 0), b = matrix.Index(i, 0); j < width; j++)
+                anyMatrix.data[a + j] += matrix.data[b + j];
         
         return anyMatrix;
     }
@@ -102,202 +171,120 @@ public class Matrix {
     public Matrix Subtract(Matrix matrix) {
         if(this.height != matrix.height || width != matrix.width) return this;
         
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
+        Matrix anyMatrix = Copy();
         
         for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++)
-                anyMatrix.cell[i][j] -= matrix.cell[i][j];
+            for(int j = 0, a = anyMatrix.Index(i, 0), b = matrix.Index(i, 0); j < width; j++)
+                anyMatrix.data[a + j] -= matrix.data[b + j];
         
         return anyMatrix;
     }        
             
+    //height x matrix.width product, by the blocked kernel of Gemm
     public Matrix Multiply(Matrix matrix) {
         if(width != matrix.height) return this;
-        int anyCell;
         
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
-        
-        for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++) {
-                anyCell = 0;
-                for(int k = 0; k < width; k++)
-                    anyCell += cell[i][k] * matrix.cell[k][j];
-                
-                anyMatrix.cell[i][j] = anyCell;
-            }
+        Matrix anyMatrix = new Matrix(height, matrix.width);
+        Gemm.Multiply(data, offset, stride, matrix.data, matrix.offset, matrix.stride,
+            anyMatrix.data, 0, anyMatrix.stride, height, width, matrix.width);
         return anyMatrix;
     }
     
     public Matrix Multiply(double number) {
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
+        Matrix anyMatrix = Copy();
         
-        for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++) 
-                anyMatrix.cell[i][j] *= number;
+        for(int i = 0; i < anyMatrix.data.length; i++)
+            anyMatrix.data[i] *= number;
         
         return anyMatrix;
     }
     
     public Matrix Multiply(double [] column) {
         if(width != column.length) return this;
-        int anyCell;
+        double anyCell;
         
         Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
         
-        for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++) {
-                anyCell = 0;
-                for(int k = 0; k < width; k++)
-                    anyCell += cell[i][k] * column[k];
-                            
-                anyMatrix.cell[i][j] = anyCell;
-            }
+        for(int i = 0; i < height; i++) {
+            anyCell = 0;
+            for(int k = 0, a = Index(i, 0); k < width; k++)
+                anyCell += data[a + k] * column[k];
+            
+            for(int j = 0; j < width; j++)
+                anyMatrix.data[anyMatrix.Index(i, j)] = anyCell;
+        }
         return anyMatrix;
     }
     
+    //width x height result; the cells are moved in square tiles, so both the rows read
+    //and the rows written stay in cache while a tile is done
     public Matrix Transpose() {
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
+        final int TILE = 32;
+        Matrix anyMatrix = new Matrix(width, height);
         
-        for(int i = 0; i < height; i++)
-            for(int j = 0; j < width; j++)
-                anyMatrix.cell[i][j] = cell[j][i];
+        for(int i0 = 0; i0 < height; i0 += TILE)
+            for(int j0 = 0; j0 < width; j0 += TILE)
+                for(int i = i0; i < Math.min(height, i0 + TILE); i++)
+                    for(int j = j0, a = Index(i, 0); j < Math.min(width, j0 + TILE); j++)
+                        anyMatrix.data[j * height + i] = data[a + j];
         
         return anyMatrix;
     }
     
-    public static double CalculateDeterminant(double[][] matrix){
-        double calcResult = 0;
-        if (matrix.length == 2) {
-            calcResult = matrix[0][0] * matrix[1][1] - matrix[1][0] * matrix[0][1];
-        }
-        else {
-            int K;
-            for(int i = 0; i < matrix.length; i++) {
-                if(i % 2 == 1) 
-                    K = -1; 
-                else 
-                    K = 1;             
-                calcResult += K * matrix[0][i] * CalculateDeterminant(GetMinor(matrix, 0, i)); 
-            }
-        }
-        return calcResult;
+    public static double CalculateDeterminant(double[][] matrix) {
+        return new LUDecomposition(new Matrix(matrix)).Determinant();
     }
-
-    private static double[][] GetMinor(double[][] matrix, int row, int column){
-        int minorLength = matrix.length - 1;
-        double[][] minor = new double[minorLength][minorLength];
-        int dI = 0;
-        int dJ;
-        
-        for(int i = 0; i <= minorLength; i++) {
-            dJ = 0;
-            for(int j = 0; j <= minorLength; j++) {
-                if(i == row)
-                    dI = 1;
-                else
-                    if(j == column)
-                        dJ = 1;
-                    else
-                        minor[i - dI][j - dJ] = matrix[i][j];
-            }
+    
+    //Factorization of this square matrix, made once and kept until a cell changes
+    public LUDecomposition LU() {
+        if(lu == null || luModifications != modifications[0]) {
+            lu = new LUDecomposition(this);
+            luModifications = modifications[0];
         }
-        return minor;
+        return lu;
     }
     
     public double Determinant() {
-        return CalculateDeterminant(cell.clone());
-    }
-    
-    public Matrix Inverse(){
-        int i, j, k;
-        int size = width;
-        Matrix E = new Matrix(size, size);
-        Matrix A = new Matrix(height, width);
-        A.Assign(this);
-        
-        for (i = 0; i < size; i++){
-            for (j = 0; j < size; j++){    
-                if (i == j) 
-                    E.cell[i][j] = 1;
-                else 
-                    E.cell[i][j] = 0;
-            }
-        }
-        
-        for (k = 0; k < size; k++) {    
-            for (j = k + 1; j < size; j++) {
-                A.cell[k][j] = A.cell[k][j] / A.cell[k][k];
-            }
-            
-            for (j = 0; j < size; j++) {
-                E.cell[k][j] = E.cell[k][j] / A.cell[k][k];
-            }
-            
-            A.cell[k][k] = A.cell[k][k] / A.cell[k][k];
-            
-            if (k > 0) {
-                for (i = 0; i < k; i++) {
-                    for (j = 0; j < size; j++) {
-                        E.cell[i][j] = E.cell[i][j] - E.cell[k][j] * A.cell[i][k];
-                    }
-                    for (j = size - 1; j >= k; j--){
-                        A.cell[i][j] = A.cell[i][j] - A.cell[k][j] * A.cell[i][k];
-                    }
-                }    
-            }
-
-            for (i = k + 1; i < size; i++) {
-                for (j = 0; j < size; j++) 
-                    E.cell[i][j] = E.cell[i][j] - E.cell[k][j] * A.cell[i][k];
-                
-                for (j = size - 1; j >= k; j--)
-                    A.cell[i][j] = A.cell[i][j] - A.cell[k][j] * A.cell[i][k];
-            }
-        }        
-        return E;
-    }    
+        return LU().Determinant();
+    }
+    
+    //From the pivoted LU of the matrix; throws ArithmeticException when it is singular
+    public Matrix Inverse() {
+        return LU().Inverse();
+    }
+    
+    //x with this * x = b, without forming the inverse; the factorization is kept for the next call
+    public double[] Solve(double[] b) {
+        return LU().Solve(b);
+    }
+    
+    public Matrix Solve(Matrix b) {
+        return LU().Solve(b);
+    }
     
     public static int max(int a, int b) { return a > b ? a : b; }
     
+    //Number of pivots of the elimination; the matrix is not changed
     public int Rank() {
-        int n = width, m = height, rank = max(n, m);
-        boolean[] lineUsed = new boolean[n];
-        double[][] A = cell.clone();
-        
-        for(int i = 0; i < m; i++) {
-            int j;
-            
-            for(j = 0; j < n; j++)
-                if(!lineUsed[j] && Math.abs(A[j][i]) > 0)
-                    break;
-            
-            if (j == n)
-                --rank;
-            else {
-                lineUsed[j] = true;
-                   
-                for(int p = i + 1; p < m; p++)
-                    A[j][p] /= A[j][i];
-                   
-                for(int k = 0; k < n; k++)
-                    if(k != j && Math.abs(A[k][i]) > 0)
-                        for(int p = i + 1; p < m; p++)
-                            A[k][p] -= A[j][p] * A[k][i];
-            }
-        }
-        return rank;
+        return new RowEchelon(this).GetRank();
+    }
+    
+    //Values within epsilon of zero count as zero
+    public int Rank(double epsilon) {
+        return new RowEchelon(this, epsilon).GetRank();
+    }
+    
+    public Matrix RowEchelon() {
+        return new RowEchelon(this).GetReduced();
+    }
+    
+    //Columns are a basis of the solutions of this * x = 0
+    public Matrix NullSpace() {
+        return new RowEchelon(this).NullSpace();
     }
     
     public Matrix Square() {
-        Matrix anyMatrix = new Matrix(height, width);
-        anyMatrix.Assign(this);
-        
-        return anyMatrix.Multiply(anyMatrix);
+        return Multiply(this);
     }
     
     public int GetWidth()   { return width; }
@@ -341,28 +328,210 @@ public class Matrix {
         test(matrix1.Multiply(matrix2).Equal(resultMyltiplyMatrix));
         test(matrix1.Equal(matr1));
         
+        //Тест на произведение прямоугольных матриц
+        Matrix rows = new Matrix(2, 3), columns = new Matrix(3, 2);
+        for(int i = 0; i < 2; i++)
+            for(int j = 0; j < 3; j++) {
+                rows.SetCell(i, j, i + j);
+                columns.SetCell(j, i, i * j + 1);
+            }
+        Matrix product = rows.Multiply(columns);
+        test(product.GetHeight() == 2 && product.GetWidth() == 2);
+        test(product.GetCell(0, 0) == 3 && product.GetCell(0, 1) == 8 && product.GetCell(1, 0) == 6 && product.GetCell(1, 1) == 14);
+        
+        Matrix half = new Matrix(matr1).Multiply(0.5);
+        test(half.Multiply(half).Equal(new Matrix(resultSquareMatrix).Multiply(0.25).ToArray()));
+        
+        //Тест на блочное произведение: края блоков и параллельный расчёт
+        int[][] shapes = {{1, 1, 1}, {5, 7, 3}, {67, 130, 131}, {300, 257, 190}};
+        java.util.Random random = new java.util.Random(7);
+        for(int s = 0; s < shapes.length; s++) {
+            int n = shapes[s][0], k = shapes[s][1], m = shapes[s][2];
+            Matrix a = new Matrix(n, k), b = new Matrix(k, m);
+            for(int i = 0; i < n; i++)
+                for(int l = 0; l < k; l++)
+                    a.SetCell(i, l, random.nextDouble() - 0.5);
+            for(int l = 0; l < k; l++)
+                for(int j = 0; j < m; j++)
+                    b.SetCell(l, j, random.nextDouble() - 0.5);
+            
+            Matrix c = a.Multiply(b);
+            double error = 0;
+            for(int i = 0; i < n; i++)
+                for(int j = 0; j < m; j++) {
+                    double sum = 0;
+                    for(int l = 0; l < k; l++)
+                        sum += a.GetCell(i, l) * b.GetCell(l, j);
+                    error = Math.max(error, Math.abs(sum - c.GetCell(i, j)));
+                }
+            test(c.GetHeight() == n && c.GetWidth() == m && error < 1e-9);
+        }
+        
+        //Тест на плоское хранение и представления
+        Matrix flat = new Matrix(2, 3, new double[] {1, 2, 3, 4, 5, 6});
+        test(flat.GetCell(1, 0) == 4 && flat.Transpose().Equal(new double[][] {{1, 4}, {2, 5}, {3, 6}}));
+        test(new Matrix(new double[][] {{1, 2, 3}, {4, 5, 6}}).Equal(flat) && flat.ToArray()[1][2] == 6);
+        
+        double[][] shared = {{1, 2}, {3, 4}};
+        Matrix copied = new Matrix(shared);
+        shared[0][0] = 100;
+        test(copied.GetCell(0, 0) == 1);
+        
+        Matrix block = matrix1.Submatrix(1, 2, 3, 2);
+        test(block.Equal(new double[][] {{6, 4}, {7, 2}, {7, 1}}));
+        test(matrix1.Row(2).Equal(new double[][] {{9, 5, 7, 2, 4}}) && matrix1.Column(1).Equal(new double[][] {{3}, {2}, {5}, {4}, {5}}));
+        test(block.Row(1).Column(1).GetCell(0, 0) == 2 && block.Transpose().Transpose().Equal(block));
+        test(block.Add(block).Equal(block.Multiply(2)) && matrix1.Equal(matr1));
+        
+        //произведение представлений совпадает с произведением их копий
+        Matrix left = matrix1.Submatrix(1, 1, 4, 3), right = matrix2.Submatrix(0, 2, 3, 3);
+        test(left.Multiply(right).Equal(left.Copy().Multiply(right.Copy())));
+        
+        Matrix writable = matrix1.Copy();
+        writable.Column(4).SetCell(0, 0, -1);
+        test(writable.GetCell(0, 4) == -1 && matrix1.Equal(matr1));
+        
         //Тест на транспонирование матрицы
         test(matrix2.Transpose().Equal(resultTransposeMatrix));
         test(matrix2.Equal(matr2));
         
         //Тест на нахождение определителя
-        test(matrix1.Determinant() == -1048);  
-        test(matrix2.Determinant() == -156);  
+        test(Math.abs(matrix1.Determinant() + 1048) < 1e-9);  
+        test(Math.abs(matrix2.Determinant() + 156) < 1e-9);  
         test(matrix1.Equal(matr1));
         test(matrix2.Equal(matr2));
         
+        //Тест на LU-разложение
+        test(new Matrix(new double[][] {{-3.5}}).Determinant() == -3.5 && Math.abs(CalculateDeterminant(matr1) + 1048) < 1e-9);
+        test(Math.abs(new Matrix(matr3).Determinant()) < 1e-6 && new Matrix(2, 2).LU().IsSingular());
+        
+        //верхнетреугольная матрица, строки сдвинуты на 5 по кругу: знак перестановки (-1)^(5 * 7)
+        int size = 12;
+        Matrix triangular = new Matrix(size, size);
+        double expected = 1;
+        for(int i = 0; i < size; i++) {
+            for(int j = i; j < size; j++)
+                triangular.SetCell((i + 5) % size, j, i == j ? i + 2 : (i * 7 + j * 3) % 5 - 2);
+            expected *= i + 2;
+        }
+        test(Math.abs(triangular.Determinant() + expected) < 1e-9 * expected);
+        
+        LUDecomposition lu = matrix1.LU();
+        double[] b = {1, 2, 3, 4, 5}, x = lu.Solve(b);
+        double residual = 0;
+        for(int i = 0; i < 5; i++) {
+            double sum = 0;
+            for(int j = 0; j < 5; j++)
+                sum += matr1[i][j] * x[j];
+            residual = Math.max(residual, Math.abs(sum - b[i]));
+        }
+        test(residual < 1e-9 && lu.Inverse().Equal(resultInverseMatrix1));
+        test(lu.Solve(matrix2).Equal(new Matrix(resultInverseMatrix1).Multiply(matrix2).ToArray()));
+        
+        //разложение хранится, пока матрица не изменится, в том числе через представление
+        Matrix changing = matrix1.Copy();
+        lu = changing.LU();
+        test(changing.LU() == lu && changing.Copy().LU() != lu);
+        changing.SetCell(0, 0, 1);
+        test(changing.LU() != lu && Math.abs(changing.Determinant() - new Matrix(changing.ToArray()).Determinant()) < 1e-9);
+        lu = changing.LU();
+        changing.Submatrix(1, 1, 2, 2).SetCell(0, 0, 0);
+        test(changing.LU() != lu && changing.GetCell(1, 1) == 0);
+        
         //Тест на нахождение обратной матрицы
         test(matrix1.Inverse().Equal(resultInverseMatrix1));
         test(matrix2.Inverse().Equal(resultInverseMatrix2));
         test(matrix1.Equal(matr1));
         test(matrix2.Equal(matr2));
         
+        //Тест на обращение с перестановкой строк и решение систем
+        Matrix swap = new Matrix(new double[][] {{0, 2}, {1, 0}});
+        test(swap.Inverse().Equal(new double[][] {{0, 1}, {0.5, 0}}));
+        double[] solution = swap.Solve(new double[] {4, 3});
+        test(solution[0] == 3 && solution[1] == 2);
+        test(matrix1.Solve(matrix2).Equal(matrix1.Inverse().Multiply(matrix2).ToArray()));
+        
+        boolean thrown = false;
+        try {
+            new Matrix(3, 3).Inverse();
+        }
+        catch(ArithmeticException e) {
+            thrown = true;
+        }
+        test(thrown);
+        
+        //Вырожденная матрица, у которой округление оставляет ненулевой ведущий элемент
+        Matrix nearly = new Matrix(new double[][] {{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+        int refused = 0;
+        try {
+            nearly.Inverse();
+        }
+        catch(ArithmeticException e) {
+            refused++;
+        }
+        try {
+            nearly.Solve(new double[] {1, 2, 3});
+        }
+        catch(ArithmeticException e) {
+            refused++;
+        }
+        test(refused == 2 && nearly.LU().IsSingular() == (nearly.Rank() < 3) && new Matrix(matr3).LU().IsSingular());
+        
+        //плохо масштабированная невырожденная матрица обращается без отказа
+        Matrix scaled = new Matrix(new double[][] {{1e10, 0}, {0, 1e-7}});
+        test(scaled.Inverse().Equal(new double[][] {{1e-10, 0}, {0, 1e7}}) && scaled.LU().IsSingular());
+        
+        //большая матрица: исключение и подстановка идут параллельно
+        int large = 300;
+        Matrix dense = new Matrix(large, large);
+        for(int i = 0; i < large; i++)
+            for(int j = 0; j < large; j++)
+                dense.SetCell(i, j, random.nextDouble() - 0.5);
+        Matrix identity = dense.Multiply(dense.Inverse());
+        double deviation = 0;
+        for(int i = 0; i < large; i++)
+            for(int j = 0; j < large; j++)
+                deviation = Math.max(deviation, Math.abs(identity.GetCell(i, j) - (i == j ? 1 : 0)));
+        test(deviation < 1e-8);
+        
         //Тест на ранг матрицы
         Matrix matrix3 = new Matrix(matr3);
         test(matrix3.Equal(matr3));
         test(matrix3.Rank() == 3);
         test(matrix3.Equal(matr3));
         
+        //Тест на ранг прямоугольных матриц, погрешность и нуль-пространство
+        test(new Matrix(new double[][] {{1, 2, 3, 4, 5}, {2, 4, 6, 8, 10}}).Rank() == 1);
+        test(new Matrix(new double[][] {{1, 2}, {3, 4}, {5, 6}, {7, 8}, {9, 10}}).Rank() == 2 && new Matrix(3, 4).Rank() == 0);
+        
+        Matrix noisy = new Matrix(matr3);
+        noisy.SetCell(1, 4, 10 + 1e-6);
+        test(noisy.Rank() == 4 && noisy.Rank(1e-3) == 3);
+        
+        Matrix reduced = new Matrix(new double[][] {{2, 4, 1}, {1, 2, 1}}).RowEchelon();
+        test(reduced.Equal(new double[][] {{1, 2, 0}, {0, 0, 1}}) && Math.abs(reduced.GetCell(0, 1) - 2) < 1e-12);
+        
+        Matrix kernel = matrix3.NullSpace();
+        Matrix zero = matrix3.Multiply(kernel);
+        double norm = 0;
+        for(int i = 0; i < zero.GetHeight(); i++)
+            for(int j = 0; j < zero.GetWidth(); j++)
+                norm = Math.max(norm, Math.abs(zero.GetCell(i, j)));
+        test(kernel.GetHeight() == 5 && kernel.GetWidth() == 2 && norm < 1e-9 && kernel.Rank() == 2);
+        
+        //произведение 200x40 на 40x150 имеет ранг 40; исключение идёт параллельно
+        Matrix tall = new Matrix(200, 40), flatter = new Matrix(40, 150);
+        for(int i = 0; i < 200; i++)
+            for(int j = 0; j < 40; j++)
+                tall.SetCell(i, j, random.nextDouble() - 0.5);
+        for(int i = 0; i < 40; i++)
+            for(int j = 0; j < 150; j++)
+                flatter.SetCell(i, j, random.nextDouble() - 0.5);
+        Matrix lowRank = tall.Multiply(flatter);
+        double[][] before = lowRank.ToArray();
+        test(lowRank.Rank() == 40 && lowRank.Transpose().Rank() == 40 && lowRank.NullSpace().GetWidth() == 110);
+        test(lowRank.Equal(before));
+        
         //Тест на степень матрицы
         test(matrix1.Square().Equal(resultSquareMatrix));
         test(matrix1.Equal(matr1));
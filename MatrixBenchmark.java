@@ -0,0 +1,101 @@
+
+package matrix;
+
+import benchmark.Benchmark;
+import java.io.IOException;
+import java.util.Random;
+
+//Matrix: Multiply, Inverse, Determinant and Rank of random square matrices, 4 to 2048
+public class MatrixBenchmark {
+    private static final int[] SIZES = {4, 16, 64, 256, 512};
+    //the sizes the blocked product and the parallel LU are tuned for; only the O(n^3)
+    //operations run on them, the rest scale the same way and would just take long
+    private static final int[] LARGE_SIZES = {1024, 2048};
+
+    public static double[][] MakeCells(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] cells = new double[size][size];
+
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                cells[i][j] = random.nextDouble() * 2 - 1;
+        return cells;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Benchmark benchmark = new Benchmark(args);
+
+        for(int s = 0; s < SIZES.length; s++) {
+            final double[][] cells = MakeCells(SIZES[s], 42);
+            final Matrix a = new Matrix(cells);
+            final Matrix b = new Matrix(MakeCells(SIZES[s], 43));
+            String[] params = {"size", "" + SIZES[s]};
+
+            benchmark.Measure("Matrix.Multiply", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Multiply(b);
+                }
+            });
+
+            //a fresh copy, so the factorization is part of the score
+            benchmark.Measure("Matrix.Inverse", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Copy().Inverse();
+                }
+            });
+
+            benchmark.Measure("Matrix.Solve", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Copy().Solve(b);
+                }
+            });
+
+            //a matrix keeps its factorization, a fresh copy makes every call factor again
+            benchmark.Measure("Matrix.Determinant", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Copy().Determinant();
+                }
+            });
+
+            final double[] column = cells[0].clone();
+            a.LU();
+            benchmark.Measure("Matrix.LU.Solve", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.LU().Solve(column);
+                }
+            });
+
+            benchmark.Measure("Matrix.Rank", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Rank();
+                }
+            });
+        }
+
+        for(int s = 0; s < LARGE_SIZES.length; s++) {
+            final Matrix a = new Matrix(MakeCells(LARGE_SIZES[s], 42));
+            final Matrix b = new Matrix(MakeCells(LARGE_SIZES[s], 43));
+            String[] params = {"size", "" + LARGE_SIZES[s]};
+
+            benchmark.Measure("Matrix.Multiply", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Multiply(b);
+                }
+            });
+
+            benchmark.Measure("Matrix.Inverse", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Copy().Inverse();
+                }
+            });
+
+            benchmark.Measure("Matrix.Determinant", params, 1, new Benchmark.Operation() {
+                public Object Run() {
+                    return a.Copy().Determinant();
+                }
+            });
+        }
+
+        benchmark.Finish();
+    }
+}
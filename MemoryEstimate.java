@@ -0,0 +1,31 @@
+
+package metrics;
+
+//Heap sizes for a 64-bit JVM with compressed references: 12 byte object headers,
+//16 byte array headers, 4 byte references, everything aligned to 8 bytes
+public class MemoryEstimate {
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+
+    public static long Align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    //fieldBytes: the summed size of the instance fields
+    public static long Object(int fieldBytes) {
+        return Align(OBJECT_HEADER + fieldBytes);
+    }
+
+    public static long Array(int length, int elementBytes) {
+        return Align(ARRAY_HEADER + (long)length * elementBytes);
+    }
+
+    //A compact string: one byte per char when all of them are Latin-1, two otherwise
+    public static long String(String s) {
+        int width = 1;
+        for(int i = 0; i < s.length() && width == 1; i++)
+            if(s.charAt(i) > 0xff) width = 2;
+        return Object(2 * REFERENCE + 8) + Array(s.length(), width);
+    }
+}
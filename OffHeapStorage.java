@@ -0,0 +1,420 @@
+
+package pkgclass.hashmap;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import codec.ValueCodec;
+
+//Entries serialized into a direct or memory-mapped data slab, with a linear probing
+//index of (hash, record offset) pairs in a second direct buffer; slots handed to the
+//Iterator are record offsets, so iteration walks the slab in record order. A run of
+//dead records is joined into one: the length at its start and the trailer at its end
+//span the whole run, so a step of the iteration is O(1). Records are only moved by an
+//insert, which compacts the slab instead of growing it when half of it is dead; a
+//delete never moves them, so an iterator survives deleting its own entry.
+//Offsets are ints and a buffer holds at most 2 GB: the slab is limited to 2 GB of
+//records and the index to 2^27 slots, about 100 million keys. Capacities beyond the
+//limits are rejected, a store that outgrows them throws IllegalStateException
+class OffHeapStorage<Type> implements Storage<Type> {
+    private static final int MAGIC = 0x48415348;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int MIN_DATA_SIZE = 1 << 16;
+    private static final double LOAD_FACTOR = 0.75;
+    private static final long MAX_DATA_SIZE = Integer.MAX_VALUE;
+    //8 byte slots, so the index buffer stays under 2 GB
+    private static final int MAX_INDEX_CAPACITY = 1 << 27;
+    public static final int MAX_ENTRIES = (int)(LOAD_FACTOR * MAX_INDEX_CAPACITY);
+
+    //Record: [int length][byte live][int key length][key bytes][value][int length];
+    //inside a dead run the lengths only lead to other record starts of the run
+    private static final int LENGTH_OFFSET = 0;
+    private static final int LIVE_OFFSET = 4;
+    private static final int KEY_LENGTH_OFFSET = 5;
+    private static final int KEY_OFFSET = 9;
+    private static final int TRAILER_SIZE = 4;
+
+    private ByteBuffer data, index;
+    private int dataEnd, deadBytes, mask, size;
+    private HashFunction hashFunction;
+    private FileChannel channel;
+
+    OffHeapStorage(int initialCapacity, HashFunction _hashFunction) {
+        hashFunction = _hashFunction;
+        data = ByteBuffer.allocateDirect((int)InitialDataSize(initialCapacity));
+        dataEnd = HEADER_SIZE;
+        AllocateIndex(IndexCapacityFor(initialCapacity));
+        WriteHeader();
+    }
+
+    //Maps the file, creating it when missing; an existing file is reopened and its index rebuilt
+    OffHeapStorage(String path, int initialCapacity, HashFunction _hashFunction) throws IOException {
+        hashFunction = _hashFunction;
+        channel = new RandomAccessFile(path, "rw").getChannel();
+
+        long length = channel.size();
+        if(length == 0) {
+            data = channel.map(FileChannel.MapMode.READ_WRITE, 0, InitialDataSize(initialCapacity));
+            dataEnd = HEADER_SIZE;
+            AllocateIndex(IndexCapacityFor(initialCapacity));
+            WriteHeader();
+            return;
+        }
+
+        if(length > MAX_DATA_SIZE)
+            throw new IOException("Hash store is over 2 GB: " + path);
+        data = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+            throw new IOException("Not a hash store: " + path);
+
+        dataEnd = data.getInt(8);
+        int liveCount = data.getInt(12);
+        AllocateIndex(IndexCapacityFor(Math.max(liveCount, initialCapacity)));
+
+        for(int record = HEADER_SIZE; record < dataEnd; record += data.getInt(record + LENGTH_OFFSET))
+            if(data.get(record + LIVE_OFFSET) != 0) {
+                IndexPut(hashFunction.Hash(ReadKey(record)), record);
+                size++;
+            }
+            else deadBytes += data.getInt(record + LENGTH_OFFSET);
+    }
+
+    //32 bytes of records per expected entry, within the 2 GB of a buffer
+    private static long InitialDataSize(int initialCapacity) {
+        CheckEntries(initialCapacity);
+        return Math.min(MAX_DATA_SIZE, Math.max(MIN_DATA_SIZE, 32L * initialCapacity));
+    }
+
+    private static int IndexCapacityFor(int entries) {
+        CheckEntries(entries);
+        return Math.min(MAX_INDEX_CAPACITY, OpenAddressingStorage.TableSizeFor((int)(entries / LOAD_FACTOR) + 1));
+    }
+
+    private static void CheckEntries(int entries) {
+        if(entries < 0 || entries > MAX_ENTRIES)
+            throw new IllegalArgumentException("Off-heap hash store holds at most " + MAX_ENTRIES + " keys, asked for " + entries);
+    }
+
+    private void AllocateIndex(int capacity) {
+        index = ByteBuffer.allocateDirect(capacity * 8);
+        mask = capacity - 1;
+    }
+
+    private void WriteHeader() {
+        data.putInt(0, MAGIC);
+        data.putInt(4, VERSION);
+        data.putInt(8, dataEnd);
+        data.putInt(12, size);
+    }
+
+    private int HashAt(int slot)    { return index.getInt(slot << 3); }
+    private int RecordAt(int slot)  { return index.getInt((slot << 3) + 4); }
+
+    private void SetSlot(int slot, int hash, int record) {
+        index.putInt(slot << 3, hash);
+        index.putInt((slot << 3) + 4, record);
+    }
+
+    private void IndexPut(int hash, int record) {
+        int slot = hash & mask;
+        while(RecordAt(slot) != 0)
+            slot = (slot + 1) & mask;
+        SetSlot(slot, hash, record);
+    }
+
+    private String ReadKey(int record) {
+        return ValueCodec.ReadUtf8(data, record + KEY_OFFSET, data.getInt(record + KEY_LENGTH_OFFSET));
+    }
+
+    private int ValuePosition(int record) {
+        return record + KEY_OFFSET + data.getInt(record + KEY_LENGTH_OFFSET);
+    }
+
+    //Index slot holding the key, or -1
+    private int Lookup(String key, int hash) {
+        for(int slot = hash & mask; RecordAt(slot) != 0; slot = (slot + 1) & mask) {
+            int record = RecordAt(slot);
+            if(HashAt(slot) == hash && ValueCodec.Utf8Equals(data, record + KEY_OFFSET, data.getInt(record + KEY_LENGTH_OFFSET), key))
+                return slot;
+        }
+        return -1;
+    }
+
+    public int Find(String key) {
+        return Find(key, hashFunction.Hash(key));
+    }
+
+    public int Find(String key, int hash) {
+        int slot = Lookup(key, hash);
+        return slot < 0 ? -1 : RecordAt(slot);
+    }
+
+    public void Insert(String key, Type value) {
+        Insert(key, hashFunction.Hash(key), value);
+    }
+
+    public void Insert(String key, int hash, Type value) {
+        int slot = Lookup(key, hash);
+
+        if(slot >= 0) {
+            int record = RecordAt(slot), position = ValuePosition(record);
+
+            //same sized values are overwritten in place
+            if(ValueCodec.SizeOf(value) == record + data.getInt(record + LENGTH_OFFSET) - TRAILER_SIZE - position) {
+                ValueCodec.Write(data, position, value);
+                return;
+            }
+            //appended first: the compaction an append may run still finds the old record live
+            int fresh = Append(key, value);
+            Kill(RecordAt(slot));
+            SetSlot(slot, hash, fresh);
+            WriteHeader();
+            return;
+        }
+
+        if(size + 1 > LOAD_FACTOR * (mask + 1))
+            GrowIndex();
+
+        IndexPut(hash, Append(key, value));
+        size++;
+        WriteHeader();
+    }
+
+    //Caller guarantees that the key is not in the store yet
+    public void InsertUnique(String key, Type value) {
+        if(size + 1 > LOAD_FACTOR * (mask + 1))
+            GrowIndex();
+
+        IndexPut(hashFunction.Hash(key), Append(key, value));
+        size++;
+        WriteHeader();
+    }
+
+    private int Append(String key, Object value) {
+        int keyLength = ValueCodec.Utf8Length(key);
+        int length = KEY_OFFSET + keyLength + ValueCodec.SizeOf(value) + TRAILER_SIZE;
+
+        if(dataEnd + (long)length > data.capacity()) {
+            CompactIfSparse();
+            if(dataEnd + (long)length > data.capacity())
+                GrowData(dataEnd + length);
+        }
+
+        int record = dataEnd;
+        data.putInt(record + LENGTH_OFFSET, length);
+        data.put(record + LIVE_OFFSET, (byte)1);
+        data.putInt(record + KEY_LENGTH_OFFSET, keyLength);
+        ValueCodec.WriteUtf8(data, record + KEY_OFFSET, key);
+        ValueCodec.Write(data, record + KEY_OFFSET + keyLength, value);
+        data.putInt(record + length - TRAILER_SIZE, length);
+
+        dataEnd += length;
+        return record;
+    }
+
+    //The record joins the dead runs next to it
+    private void Kill(int record) {
+        int from = record, to = record + data.getInt(record + LENGTH_OFFSET);
+        data.put(record + LIVE_OFFSET, (byte)0);
+        deadBytes += to - from;
+
+        if(from > HEADER_SIZE) {
+            int previous = from - data.getInt(from - TRAILER_SIZE);
+            if(data.get(previous + LIVE_OFFSET) == 0)
+                from = previous;
+        }
+        if(to < dataEnd && data.get(to + LIVE_OFFSET) == 0)
+            to += data.getInt(to + LENGTH_OFFSET);
+
+        data.putInt(from + LENGTH_OFFSET, to - from);
+        data.putInt(to - TRAILER_SIZE, to - from);
+    }
+
+    public int HomeOf(int hash) {
+        return hash & mask;
+    }
+
+    public void Reserve(int _size) {
+        if(_size > LOAD_FACTOR * (mask + 1))
+            ResizeIndex(IndexCapacityFor(_size));
+    }
+
+    private void GrowIndex() {
+        if(mask + 1 >= MAX_INDEX_CAPACITY)
+            throw new IllegalStateException("Off-heap hash store is limited to " + MAX_ENTRIES + " keys");
+        ResizeIndex((mask + 1) << 1);
+    }
+
+    public boolean Delete(String key) {
+        return Delete(key, hashFunction.Hash(key));
+    }
+
+    public boolean Delete(String key, int hash) {
+        int slot = Lookup(key, hash);
+        if(slot < 0) return false;
+
+        Kill(RecordAt(slot));
+
+        for(int next = (slot + 1) & mask; RecordAt(next) != 0; next = (next + 1) & mask) {
+            int home = HashAt(next) & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                SetSlot(slot, HashAt(next), RecordAt(next));
+                slot = next;
+            }
+        }
+        SetSlot(slot, 0, 0);
+        size--;
+
+        WriteHeader();
+        return true;
+    }
+
+    private void GrowData(long required) {
+        if(required > MAX_DATA_SIZE)
+            throw new IllegalStateException("Off-heap hash store is limited to 2 GB of records");
+
+        long capacity = data.capacity();
+        while(capacity < required)
+            capacity <<= 1;
+        capacity = Math.min(capacity, MAX_DATA_SIZE);
+
+        if(channel != null) {
+            try {
+                data = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            catch(IOException e) {
+                throw new IllegalStateException("Can not grow the mapped hash store", e);
+            }
+            return;
+        }
+
+        ByteBuffer grown = ByteBuffer.allocateDirect((int)capacity);
+        ByteBuffer source = data.duplicate();
+        source.position(0).limit(dataEnd);
+        grown.put(source);
+        data = grown;
+    }
+
+    private void ResizeIndex(int capacity) {
+        ByteBuffer oldIndex = index;
+        int oldCapacity = mask + 1;
+
+        AllocateIndex(capacity);
+        for(int i = 0; i < oldCapacity; i++)
+            if(oldIndex.getInt((i << 3) + 4) != 0)
+                IndexPut(oldIndex.getInt(i << 3), oldIndex.getInt((i << 3) + 4));
+    }
+
+    private void CompactIfSparse() {
+        if(deadBytes > 0 && deadBytes >= (dataEnd - HEADER_SIZE) / 2)
+            Compact();
+    }
+
+    //Slides live records over the dead ones; record order is kept, so walking the
+    //occupied slots by record offset gives each moved record its index entry
+    private void Compact() {
+        int[] order = SlotsByRecord();
+        int target = HEADER_SIZE, next = 0;
+
+        for(int record = HEADER_SIZE; record < dataEnd; ) {
+            int length = data.getInt(record + LENGTH_OFFSET);
+
+            if(data.get(record + LIVE_OFFSET) != 0) {
+                if(target != record)
+                    for(int i = 0; i < length; i++)
+                        data.put(target + i, data.get(record + i));
+
+                SetSlot(order[next], HashAt(order[next]), target);
+                next++;
+                target += length;
+            }
+            record += length;
+        }
+
+        dataEnd = target;
+        deadBytes = 0;
+    }
+
+    private int[] SlotsByRecord() {
+        long[] keyed = new long[size];
+        for(int i = 0, j = 0; i <= mask; i++)
+            if(RecordAt(i) != 0)
+                keyed[j++] = ((long)RecordAt(i) << 32) | i;
+        Arrays.sort(keyed);
+
+        int[] order = new int[size];
+        for(int i = 0; i < size; i++)
+            order[i] = (int)keyed[i];
+        return order;
+    }
+
+    public void Force() {
+        WriteHeader();
+        if(data instanceof MappedByteBuffer)
+            ((MappedByteBuffer)data).force();
+    }
+
+    public void Close() throws IOException {
+        Force();
+        if(channel != null)
+            channel.close();
+    }
+
+    public String GetKey(int slot)      { return ReadKey(slot); }
+    public Type GetValue(int slot)      { return (Type)ValueCodec.Read(data, ValuePosition(slot)); }
+    public int GetSize()                { return size; }
+    public long GetOffHeapBytes()       { return (long)data.capacity() + index.capacity(); }
+
+    public BucketStatistics GetStatistics() {
+        BucketStatistics statistics = new BucketStatistics(mask + 1);
+        boolean[] used = new boolean[mask + 1];
+
+        for(int i = 0; i <= mask; i++)
+            if(RecordAt(i) != 0) {
+                int home = HashAt(i) & mask;
+                if(!used[home]) {
+                    used[home] = true;
+                    statistics.AddUsedBucket();
+                }
+                statistics.AddEntry(((i - home) & mask) + 1);
+            }
+        return statistics;
+    }
+
+    //Keys and values live in the buffers, outside the heap
+    public long GetRetainedBytes() {
+        return GetOffHeapBytes();
+    }
+
+    public int GetFirst() {
+        return GetNext(-1);
+    }
+
+    public int GetRear() {
+        return GetPrev(dataEnd);
+    }
+
+    //O(1) from a live record: the next record is live or starts a dead run. Only a record
+    //deleted under the iterator may sit inside a run, whose records are then walked
+    public int GetNext(int slot) {
+        int record = slot < 0 ? HEADER_SIZE : slot + data.getInt(slot + LENGTH_OFFSET);
+
+        for(; record < dataEnd; record += data.getInt(record + LENGTH_OFFSET))
+            if(data.get(record + LIVE_OFFSET) != 0)
+                return record;
+        return -1;
+    }
+
+    public int GetPrev(int slot) {
+        for(int record = slot; record > HEADER_SIZE; ) {
+            record -= data.getInt(record - TRAILER_SIZE);
+            if(data.get(record + LIVE_OFFSET) != 0)
+                return record;
+        }
+        return -1;
+    }
+}
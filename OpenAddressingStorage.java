@@ -0,0 +1,266 @@
+
+package pkgclass.hashmap;
+
+import metrics.MemoryEstimate;
+
+//Robin Hood index over dense key/value arrays kept in insertion order; slots handed
+//to the Iterator are entry numbers, so walking them never touches the index. Entries
+//are only renumbered by an insert, which also shrinks the table and drops deleted
+//entries when deletes left it sparse; a delete never renumbers them
+class OpenAddressingStorage<Type> implements Storage<Type> {
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final double DEFAULT_MIN_LOAD_FACTOR = 0.2;
+    public static final double DEFAULT_MAX_LOAD_FACTOR = 0.8;
+
+    //index holds entry number + 1, 0 is an empty slot
+    private int[] index;
+    //dense entries; a deleted entry keeps a null key until the next rebuild, and its
+    //hash is free: at both ends of a run of deleted entries it holds the other end,
+    //so the iteration steps over the whole run at once
+    private String[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int mask, size, count, minCapacity;
+    private double minLoadFactor, maxLoadFactor;
+    private HashFunction hashFunction;
+
+    OpenAddressingStorage(int initialCapacity, double _minLoadFactor, double _maxLoadFactor, HashFunction _hashFunction) {
+        if(_maxLoadFactor <= 0 || _maxLoadFactor >= 1 || _minLoadFactor < 0 || _minLoadFactor >= _maxLoadFactor / 2)
+            throw new IllegalArgumentException("Bad load factors: " + _minLoadFactor + ", " + _maxLoadFactor);
+
+        hashFunction = _hashFunction;
+        minLoadFactor = _minLoadFactor;
+        maxLoadFactor = _maxLoadFactor;
+        minCapacity = TableSizeFor(initialCapacity);
+        Allocate(minCapacity);
+    }
+
+    public static int TableSizeFor(int capacity) {
+        int n = 2;
+        while(n < capacity && n < (1 << 30))
+            n <<= 1;
+        return n;
+    }
+
+    private void Allocate(int capacity) {
+        int entries = (int)(maxLoadFactor * capacity) + 1;
+
+        index = new int[capacity];
+        keys = new String[entries];
+        values = new Object[entries];
+        hashes = new int[entries];
+        mask = capacity - 1;
+        count = 0;
+    }
+
+    private int ProbeDistance(int slot) {
+        return (slot - (hashes[index[slot] - 1] & mask)) & mask;
+    }
+
+    //Index slot holding the key, or -1
+    private int Lookup(String key, int hash) {
+        int slot = hash & mask;
+
+        for(int dist = 0; index[slot] != 0 && dist <= ProbeDistance(slot); dist++) {
+            int entry = index[slot] - 1;
+            if(hashes[entry] == hash && keys[entry].equals(key))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int Find(String key) {
+        return Find(key, hashFunction.Hash(key));
+    }
+
+    public int Find(String key, int hash) {
+        int slot = Lookup(key, hash);
+        return slot < 0 ? -1 : index[slot] - 1;
+    }
+
+    public void Insert(String key, Type value) {
+        Insert(key, hashFunction.Hash(key), value);
+    }
+
+    public void Insert(String key, int hash, Type value) {
+        int entry = Find(key, hash);
+        if(entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+        InsertUnique(key, hash, value);
+    }
+
+    //Caller guarantees that the key is not in the table yet
+    public void InsertUnique(String key, Type value) {
+        InsertUnique(key, hashFunction.Hash(key), value);
+    }
+
+    private void InsertUnique(String key, int hash, Type value) {
+        if(size + 1 > maxLoadFactor * (mask + 1))
+            Rebuild((mask + 1) << 1);
+        else if(mask + 1 > minCapacity && size < minLoadFactor * (mask + 1))
+            Rebuild((mask + 1) >> 1);
+        else if(count == keys.length || count - size > size)
+            Rebuild(mask + 1);
+
+        int entry = count++;
+        keys[entry] = key;
+        values[entry] = value;
+        hashes[entry] = hash;
+        Place(entry + 1);
+        size++;
+    }
+
+    public int HomeOf(int hash) {
+        return hash & mask;
+    }
+
+    public void Reserve(int _size) {
+        if(_size > maxLoadFactor * (mask + 1))
+            Rebuild(TableSizeFor((int)Math.ceil(_size / maxLoadFactor) + 1));
+        else if(count + _size - size > keys.length)
+            Rebuild(mask + 1);
+    }
+
+    private void Place(int entry) {
+        int slot = hashes[entry - 1] & mask, dist = 0;
+
+        while(index[slot] != 0) {
+            int existing = ProbeDistance(slot);
+
+            if(existing < dist) {
+                int anyEntry = index[slot];
+                index[slot] = entry;
+                entry = anyEntry;
+                dist = existing;
+            }
+            slot = (slot + 1) & mask;
+            dist++;
+        }
+        index[slot] = entry;
+    }
+
+    public boolean Delete(String key) {
+        return Delete(key, hashFunction.Hash(key));
+    }
+
+    public boolean Delete(String key, int hash) {
+        int slot = Lookup(key, hash);
+        if(slot < 0) return false;
+
+        int entry = index[slot] - 1;
+
+        //backward shift instead of tombstones keeps probe chains short
+        int next = (slot + 1) & mask;
+        while(index[next] != 0 && ProbeDistance(next) > 0) {
+            index[slot] = index[next];
+            slot = next;
+            next = (next + 1) & mask;
+        }
+        index[slot] = 0;
+        size--;
+
+        keys[entry] = null;
+        values[entry] = null;
+        JoinHoles(entry);
+
+        while(count > 0 && keys[count - 1] == null)
+            count--;
+        return true;
+    }
+
+    //The deleted entry merges with the runs of deleted entries next to it
+    private void JoinHoles(int entry) {
+        int from = entry > 0 && keys[entry - 1] == null ? hashes[entry - 1] : entry;
+        int to = entry + 1 < count && keys[entry + 1] == null ? hashes[entry + 1] : entry;
+        hashes[from] = to;
+        hashes[to] = from;
+    }
+
+    //Drops deleted entries and rebuilds the index; order of the live entries is kept
+    private void Rebuild(int capacity) {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldCount = count;
+
+        Allocate(capacity);
+        for(int i = 0; i < oldCount; i++)
+            if(oldKeys[i] != null) {
+                keys[count] = oldKeys[i];
+                values[count] = oldValues[i];
+                hashes[count] = oldHashes[i];
+                count++;
+                Place(count);
+            }
+    }
+
+    public String GetKey(int slot)      { return keys[slot]; }
+    public Type GetValue(int slot)      { return (Type)values[slot]; }
+    public int GetSize()                { return size; }
+    public int GetCapacity()            { return mask + 1; }
+
+    public BucketStatistics GetStatistics() {
+        BucketStatistics statistics = new BucketStatistics(mask + 1);
+        boolean[] used = new boolean[mask + 1];
+
+        for(int i = 0; i <= mask; i++)
+            if(index[i] != 0) {
+                int home = hashes[index[i] - 1] & mask;
+                if(!used[home]) {
+                    used[home] = true;
+                    statistics.AddUsedBucket();
+                }
+                statistics.AddEntry(ProbeDistance(i) + 1);
+            }
+        return statistics;
+    }
+
+    public long GetRetainedBytes() {
+        long bytes = MemoryEstimate.Array(index.length, 4) + MemoryEstimate.Array(keys.length, MemoryEstimate.REFERENCE)
+            + MemoryEstimate.Array(values.length, MemoryEstimate.REFERENCE) + MemoryEstimate.Array(hashes.length, 4);
+        for(int i = 0; i < count; i++)
+            if(keys[i] != null)
+                bytes += MemoryEstimate.String(keys[i]);
+        return bytes;
+    }
+
+    public int GetFirst() {
+        return GetNext(-1);
+    }
+
+    public int GetRear() {
+        return GetPrev(count);
+    }
+
+    //O(1): a run of deleted entries is jumped over by the index at its end. Only a slot
+    //deleted under the iterator may sit inside a run; its neighbour is then searched for
+    public int GetNext(int slot) {
+        if(slot >= 0 && slot < count && keys[slot] == null)
+            return Search(slot, 1);
+
+        int i = slot + 1;
+        if(i < count && keys[i] == null)
+            i = hashes[i] + 1;
+        return i < count ? i : -1;
+    }
+
+    public int GetPrev(int slot) {
+        if(slot >= 0 && slot < count && keys[slot] == null)
+            return Search(slot, -1);
+
+        int i = Math.min(slot, count) - 1;
+        if(i >= 0 && keys[i] == null)
+            i = hashes[i] - 1;
+        return i;
+    }
+
+    private int Search(int slot, int step) {
+        for(int i = slot + step; i >= 0 && i < count; i += step)
+            if(keys[i] != null)
+                return i;
+        return -1;
+    }
+}
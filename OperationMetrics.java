@@ -0,0 +1,90 @@
+
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//Counters and latency histograms of the operations of one structure. A structure keeps
+//a null reference while metrics are off, so a disabled structure pays one null check
+public class OperationMetrics implements OperationMetricsMBean {
+    public static final int INSERT = 0;
+    public static final int DELETE = 1;
+    public static final int LOOKUP = 2;
+    //how long a shape computed for JMX is shown before it is computed again
+    private static final long REFRESH_NANOS = 1000000000L;
+
+    private final LatencyHistogram[] latency = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    private long refreshedAt = System.nanoTime() - REFRESH_NANOS;
+    private ObjectName name;
+
+    //Adds the operation that started at start
+    public void Record(int operation, long start) {
+        Record(operation, start, 1);
+    }
+
+    //A batch of operations, each counted with the average latency of the batch
+    public void Record(int operation, long start, int operations) {
+        if(operations > 0)
+            latency[operation].Add((System.nanoTime() - start) / operations, operations);
+    }
+
+    //For the JMX reader: true, at most once a second, when the shape it shows is to be
+    //computed again; the caller holds the lock of this object
+    protected boolean IsShapeDue() {
+        long now = System.nanoTime();
+        if(now - refreshedAt < REFRESH_NANOS) return false;
+        refreshedAt = now;
+        return true;
+    }
+
+    public LatencyHistogram GetLatency(int operation) {
+        return latency[operation];
+    }
+
+    public long GetCount(int operation) {
+        return latency[operation].GetCount();
+    }
+
+    public void Reset() {
+        for(int i = 0; i < latency.length; i++)
+            latency[i].Reset();
+    }
+
+    //Registers this object with the platform MBean server, as domain:type=type,name=name
+    public void Register(String domain, String type, String _name) throws JMException {
+        Unregister();
+        ObjectName objectName = new ObjectName(domain + ":type=" + type + ",name=" + ObjectName.quote(_name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        name = objectName;
+    }
+
+    public void Unregister() throws JMException {
+        if(name == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        name = null;
+    }
+
+    public ObjectName GetObjectName() {
+        return name;
+    }
+
+    public long getInsertCount()        { return latency[INSERT].GetCount(); }
+    public double getInsertMeanNanos()  { return latency[INSERT].GetMean(); }
+    public long getInsertP99Nanos()     { return latency[INSERT].GetPercentile(0.99); }
+    public long getInsertMaxNanos()     { return latency[INSERT].GetMax(); }
+
+    public long getDeleteCount()        { return latency[DELETE].GetCount(); }
+    public double getDeleteMeanNanos()  { return latency[DELETE].GetMean(); }
+    public long getDeleteP99Nanos()     { return latency[DELETE].GetPercentile(0.99); }
+    public long getDeleteMaxNanos()     { return latency[DELETE].GetMax(); }
+
+    public long getLookupCount()        { return latency[LOOKUP].GetCount(); }
+    public double getLookupMeanNanos()  { return latency[LOOKUP].GetMean(); }
+    public long getLookupP99Nanos()     { return latency[LOOKUP].GetPercentile(0.99); }
+    public long getLookupMaxNanos()     { return latency[LOOKUP].GetMax(); }
+
+    public String toString() {
+        return "insert: " + latency[INSERT] + "\ndelete: " + latency[DELETE] + "\nlookup: " + latency[LOOKUP];
+    }
+}
@@ -0,0 +1,23 @@
+
+package metrics;
+
+//Operation counters and latencies as JMX attributes; JMX takes only getters named
+//getX for attributes, so these do not follow the capitalized names of the rest
+public interface OperationMetricsMBean {
+    long getInsertCount();
+    double getInsertMeanNanos();
+    long getInsertP99Nanos();
+    long getInsertMaxNanos();
+
+    long getDeleteCount();
+    double getDeleteMeanNanos();
+    long getDeleteP99Nanos();
+    long getDeleteMaxNanos();
+
+    long getLookupCount();
+    double getLookupMeanNanos();
+    long getLookupP99Nanos();
+    long getLookupMaxNanos();
+
+    void Reset();
+}
@@ -0,0 +1,122 @@
+
+package pkgclass.hashmap;
+
+//Linear probing String-keyed table; subclasses keep the unboxed value array
+abstract class PrimitiveHash {
+    private static final double LOAD_FACTOR = 0.75;
+
+    private String[] keys;
+    private int[] hashes;
+    private int mask, size;
+    private HashFunction hashFunction;
+
+    protected PrimitiveHash(int initialCapacity, HashFunction _hashFunction) {
+        hashFunction = _hashFunction;
+        int capacity = OpenAddressingStorage.TableSizeFor((int)(initialCapacity / LOAD_FACTOR) + 1);
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    //Replaces the value array with a new one of the given capacity and returns the old one
+    protected abstract Object SwapValues(int capacity);
+    protected abstract void MoveValue(Object oldValues, int from, int to);
+    protected abstract void ShiftValue(int from, int to);
+
+    protected int Find(String key) {
+        int hash = hashFunction.Hash(key);
+
+        for(int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask)
+            if(hashes[slot] == hash && keys[slot].equals(key))
+                return slot;
+        return -1;
+    }
+
+    //Slot of an existing key, or -(slot + 1) when the key was just inserted
+    protected int Claim(String key) {
+        int hash = hashFunction.Hash(key), slot;
+
+        for(slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask)
+            if(hashes[slot] == hash && keys[slot].equals(key))
+                return slot;
+
+        if(size + 1 > LOAD_FACTOR * (mask + 1)) {
+            Resize((mask + 1) << 1);
+            for(slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask);
+        }
+
+        keys[slot] = key;
+        hashes[slot] = hash;
+        size++;
+        return -slot - 1;
+    }
+
+    public boolean ContainsKey(String key) {
+        return Find(key) >= 0;
+    }
+
+    public boolean Delete(String key) {
+        int slot = Find(key);
+        if(slot < 0) return false;
+
+        //backward shift: pull up every following entry whose home is not in (slot, next]
+        for(int next = (slot + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                hashes[slot] = hashes[next];
+                ShiftValue(next, slot);
+                slot = next;
+            }
+        }
+
+        keys[slot] = null;
+        size--;
+        return true;
+    }
+
+    private void Resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object oldValues = SwapValues(capacity);
+
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+
+        for(int i = 0; i < oldKeys.length; i++)
+            if(oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while(keys[slot] != null)
+                    slot = (slot + 1) & mask;
+
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                MoveValue(oldValues, i, slot);
+            }
+    }
+
+    protected int GetCapacity() {
+        return mask + 1;
+    }
+
+    public int GetSize() {
+        return size;
+    }
+
+    //Slot iteration: for(int s = GetFirst(); s >= 0; s = GetNext(s))
+    public int GetFirst() {
+        return GetNext(-1);
+    }
+
+    public int GetNext(int slot) {
+        for(int i = slot + 1; i <= mask; i++)
+            if(keys[i] != null)
+                return i;
+        return -1;
+    }
+
+    public String GetKey(int slot) {
+        return keys[slot];
+    }
+}
@@ -0,0 +1,120 @@
+
+package matrix;
+
+import java.util.stream.IntStream;
+
+//Reduced row echelon form by Gauss-Jordan elimination with partial pivoting, on a private
+//copy of the matrix. In each column the largest remaining value becomes the pivot; a
+//column whose largest value is within epsilon of zero has no pivot and is free. The rank
+//is the number of pivots, the free columns give a basis of the null space
+public class RowEchelon {
+    //multiply-adds of a step below which it stays on the calling thread
+    private static final int PARALLEL_WORK = 1 << 16;
+
+    private double[] cells;
+    private int height, width, rank;
+    private int[] pivotColumns;
+    private double epsilon;
+
+    //Zero below max(height, width) * the largest magnitude * the double precision
+    public RowEchelon(Matrix matrix) {
+        this(matrix, DefaultEpsilon(matrix));
+    }
+
+    public RowEchelon(Matrix matrix, double _epsilon) {
+        height = matrix.GetHeight();
+        width = matrix.GetWidth();
+        cells = matrix.ToRowMajor();
+        epsilon = _epsilon;
+        pivotColumns = new int[Math.min(height, width)];
+
+        for(int c = 0; c < width && rank < height; c++) {
+            int p = rank;
+            for(int i = rank + 1; i < height; i++)
+                if(Math.abs(cells[i * width + c]) > Math.abs(cells[p * width + c]))
+                    p = i;
+
+            if(Math.abs(cells[p * width + c]) <= epsilon) {
+                //below the tolerance the column is zero, drop what is left of it
+                for(int i = rank; i < height; i++)
+                    cells[i * width + c] = 0;
+                continue;
+            }
+
+            SwapRows(p, rank);
+            double scale = 1 / cells[rank * width + c];
+            for(int j = rank * width + c; j < rank * width + width; j++)
+                cells[j] *= scale;
+            cells[rank * width + c] = 1;
+
+            final int row = rank, column = c;
+            if((long)height * (width - c) < PARALLEL_WORK) {
+                for(int i = 0; i < height; i++)
+                    Eliminate(i, row, column);
+            }
+            else
+                IntStream.range(0, height).parallel().forEach(i -> Eliminate(i, row, column));
+
+            pivotColumns[rank++] = c;
+        }
+    }
+
+    public static double DefaultEpsilon(Matrix matrix) {
+        double largest = 0;
+        for(int i = 0; i < matrix.GetHeight(); i++)
+            for(int j = 0; j < matrix.GetWidth(); j++)
+                largest = Math.max(largest, Math.abs(matrix.GetCell(i, j)));
+        return Math.max(matrix.GetHeight(), matrix.GetWidth()) * largest * Math.ulp(1.0);
+    }
+
+    //Row i loses its part in the pivot column, using the pivot row, already scaled to 1
+    private void Eliminate(int i, int row, int column) {
+        if(i == row) return;
+
+        double factor = cells[i * width + column];
+        if(factor == 0) return;
+
+        for(int j = column + 1, a = i * width, b = row * width; j < width; j++)
+            cells[a + j] -= factor * cells[b + j];
+        cells[i * width + column] = 0;
+    }
+
+    private void SwapRows(int a, int b) {
+        if(a == b) return;
+        for(int j = 0; j < width; j++) {
+            double t = cells[a * width + j];
+            cells[a * width + j] = cells[b * width + j];
+            cells[b * width + j] = t;
+        }
+    }
+
+    public int GetRank()            { return rank; }
+    public double GetEpsilon()      { return epsilon; }
+
+    public int[] GetPivotColumns() {
+        return java.util.Arrays.copyOf(pivotColumns, rank);
+    }
+
+    public Matrix GetReduced() {
+        return new Matrix(height, width, cells.clone());
+    }
+
+    //width x (width - rank) matrix whose columns are a basis of the solutions of Ax = 0:
+    //a free column set to 1, the pivot columns solved from the reduced rows
+    public Matrix NullSpace() {
+        boolean[] pivot = new boolean[width];
+        for(int k = 0; k < rank; k++)
+            pivot[pivotColumns[k]] = true;
+
+        Matrix basis = new Matrix(width, width - rank);
+        for(int f = 0, v = 0; f < width; f++) {
+            if(pivot[f]) continue;
+
+            basis.SetCell(f, v, 1);
+            for(int k = 0; k < rank; k++)
+                basis.SetCell(pivotColumns[k], v, -cells[k * width + f]);
+            v++;
+        }
+        return basis;
+    }
+}
@@ -0,0 +1,32 @@
+
+package pkgclass.hashmap;
+
+//Slot-addressed storage engine behind Hash; slot -1 means "no element"
+interface Storage<Type> {
+    int Find(String key);
+    void Insert(String key, Type value);
+    void InsertUnique(String key, Type value);
+    boolean Delete(String key);
+
+    //Same operations for a key whose hash the caller already computed
+    int Find(String key, int hash);
+    void Insert(String key, int hash, Type value);
+    boolean Delete(String key, int hash);
+
+    //Home bucket of a hash, and room for size entries without further resizing
+    int HomeOf(int hash);
+    void Reserve(int size);
+
+    String GetKey(int slot);
+    Type GetValue(int slot);
+
+    int GetFirst();
+    int GetRear();
+    int GetNext(int slot);
+    int GetPrev(int slot);
+
+    int GetSize();
+    BucketStatistics GetStatistics();
+    //Estimated bytes the storage holds on to, values not counted
+    long GetRetainedBytes();
+}
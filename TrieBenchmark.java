@@ -0,0 +1,133 @@
+
+package classtrie;
+
+import benchmark.Benchmark;
+import java.io.IOException;
+import java.util.Random;
+
+//Trie: Insert, lookup through the Iterator and Delete for several key counts and distributions
+public class TrieBenchmark {
+    private static final int[] KEY_COUNTS = {1000, 10000, 100000};
+    private static final String[] DISTRIBUTIONS = {"sequential", "random", "prefixed"};
+
+    public static String[] MakeKeys(String distribution, int count, long seed) {
+        Random random = new Random(seed);
+        String[] keys = new String[count];
+
+        for(int i = 0; i < count; i++) {
+            if(distribution.equals("sequential"))
+                keys[i] = "key" + i;
+            else if(distribution.equals("prefixed"))
+                keys[i] = "https://example.com/catalog/items/" + i;
+            else {
+                char[] chars = new char[4 + random.nextInt(13)];
+                for(int j = 0; j < chars.length; j++)
+                    chars[j] = (char)('a' + random.nextInt(26));
+                keys[i] = new String(chars) + i;
+            }
+        }
+        return keys;
+    }
+
+    public static Trie Fill(String[] keys) {
+        Trie trie = new Trie();
+        for(int i = 0; i < keys.length; i++)
+            trie.Insert(keys[i], i);
+        return trie;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Benchmark benchmark = new Benchmark(args);
+
+        for(int c = 0; c < KEY_COUNTS.length; c++)
+            for(int d = 0; d < DISTRIBUTIONS.length; d++) {
+                final String[] keys = MakeKeys(DISTRIBUTIONS[d], KEY_COUNTS[c], 42);
+                final int[] probe = new int[keys.length];
+                Random random = new Random(7);
+                for(int i = 0; i < probe.length; i++)
+                    probe[i] = random.nextInt(keys.length);
+
+                String[] params = {"keys", "" + keys.length, "distribution", DISTRIBUTIONS[d]};
+
+                benchmark.Measure("Trie.Insert", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        return Fill(keys).GetSize();
+                    }
+                });
+
+                final java.util.List<java.util.Map.Entry<String, Integer>> sorted = new java.util.ArrayList<java.util.Map.Entry<String, Integer>>();
+                String[] sortedKeys = keys.clone();
+                java.util.Arrays.sort(sortedKeys);
+                for(int i = 0; i < sortedKeys.length; i++)
+                    sorted.add(new java.util.AbstractMap.SimpleImmutableEntry<String, Integer>(sortedKeys[i], i));
+
+                benchmark.Measure("Trie.BuildFromSorted", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        return Trie.BuildFromSorted(sorted.iterator()).GetSize();
+                    }
+                });
+
+                benchmark.Measure("Trie.BuildFromSortedParallel", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        return Trie.BuildFromSortedParallel(sorted).GetSize();
+                    }
+                });
+
+                //Delete needs a filled trie for every call, so the score includes refilling it
+                benchmark.Measure("Trie.Delete", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        Trie trie = Fill(keys);
+                        for(int i = 0; i < keys.length; i++)
+                            trie.Delete(keys[i]);
+                        return trie.GetSize();
+                    }
+                });
+
+                if(!benchmark.IsSelected("Trie.FindElementByKey") && !benchmark.IsSelected("Trie.PrefixScan")
+                && !benchmark.IsSelected("FrozenTrie.FindElementByKey")) continue;
+
+                final Trie trie = Fill(keys);
+                final Trie.Iterator iterator = trie.new Iterator(trie);
+
+                benchmark.Measure("Trie.FindElementByKey", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        int found = 0;
+                        for(int i = 0; i < probe.length; i++) {
+                            iterator.GetElementByKey(keys[probe[i]]);
+                            if(iterator.Dereference() != null) found++;
+                        }
+                        return found;
+                    }
+                });
+
+                final FrozenTrie frozen = trie.Freeze();
+
+                benchmark.Measure("FrozenTrie.FindElementByKey", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        int found = 0;
+                        for(int i = 0; i < probe.length; i++)
+                            if(frozen.FindElementByKey(keys[probe[i]]) != null) found++;
+                        return found;
+                    }
+                });
+
+                //top 10 completions of the first 3 chars of a key, as autocomplete asks
+                benchmark.Measure("Trie.PrefixScan", params, keys.length, new Benchmark.Operation() {
+                    public Object Run() {
+                        int found = 0;
+                        for(int i = 0; i < probe.length; i++) {
+                            String key = keys[probe[i]];
+                            java.util.Iterator scan = trie.PrefixScan(key.substring(0, Math.min(3, key.length())), 10);
+                            while(scan.hasNext()) {
+                                scan.next();
+                                found++;
+                            }
+                        }
+                        return found;
+                    }
+                });
+            }
+
+        benchmark.Finish();
+    }
+}
@@ -0,0 +1,36 @@
+package classtrie;
+
+import metrics.OperationMetrics;
+
+//Metrics of a Trie. The shape of the tree takes a walk over it, so it is computed when
+//JMX reads it, at most once a second, and never inside an operation. The Trie is not
+//thread-safe: while metrics are on it makes every change holding the lock of this
+//object, and the walk holds the same lock, so the copy is consistent
+public class TrieMetrics extends OperationMetrics implements TrieMetricsMBean {
+    //null once the Trie turned its metrics off
+    private Trie<?> trie;
+    private TrieStatistics statistics = new TrieStatistics();
+
+    TrieMetrics(Trie<?> _trie) {
+        trie = _trie;
+    }
+
+    synchronized void Detach() {
+        trie = null;
+    }
+
+    public synchronized TrieStatistics GetStatistics() {
+        if(trie != null && IsShapeDue())
+            statistics = trie.GetStatistics();
+        return statistics;
+    }
+
+    public synchronized int getEntries()    { return trie == null ? statistics.GetEntries() : trie.GetSize(); }
+    public int getNodes()                   { return GetStatistics().GetNodes(); }
+    public long getRetainedBytes()          { return GetStatistics().GetRetainedBytes(); }
+    public int getMaxDepth()                { return GetStatistics().GetMaxDepth(); }
+    public double getAverageDepth()         { return GetStatistics().GetAverageDepth(); }
+    public double getAverageFanOut()        { return GetStatistics().GetAverageFanOut(); }
+    public int[] getDepthHistogram()        { return GetStatistics().GetDepthHistogram(); }
+    public int[] getFanOutHistogram()       { return GetStatistics().GetFanOutHistogram(); }
+}
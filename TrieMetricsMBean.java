@@ -0,0 +1,16 @@
+
+package classtrie;
+
+import metrics.OperationMetricsMBean;
+
+//Attributes of an instrumented Trie; the shape of the tree is at most a second old
+public interface TrieMetricsMBean extends OperationMetricsMBean {
+    int getNodes();
+    int getEntries();
+    long getRetainedBytes();
+    int getMaxDepth();
+    double getAverageDepth();
+    double getAverageFanOut();
+    int[] getDepthHistogram();
+    int[] getFanOutHistogram();
+}
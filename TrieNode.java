@@ -0,0 +1,292 @@
+
+package classtrie;
+
+import metrics.MemoryEstimate;
+
+//Trie node: the part of the key from the parent to this node and the children, kept
+//in a table sized by the real fan-out, as the Node4/16/48/256 of an adaptive radix tree:
+//sorted labels of up to 4 and 16 children, a byte index of 256 labels into 48
+//children, then 256 children addressed by the label directly. Labels above U+00FF do
+//not fit the two big kinds, a node having them keeps a sorted table searched by halving
+class TrieNode<Type> {
+    private static final int SMALL = 4;
+    private static final int MEDIUM = 16;
+    private static final int INDEXED = 48;
+    private static final int DIRECT = 256;
+
+    private TrieNode<Type> parentNode;
+    //the node key is key[offset, offset + length): halves of a split node share the array
+    private char[] key;
+    private int offset, length;
+    //length of the whole key from the root to the end of this node; splitting and
+    //merging nodes never changes it
+    private int depth;
+    private Type value;
+    //number of values in the subtree, this node included
+    private int total;
+
+    //A leaf has no table; labels are the first chars of the children keys
+    private int count;
+    private char[] labels;
+    private byte[] index;
+    private TrieNode<Type>[] children;
+
+    TrieNode(TrieNode<Type> parent, char[] _key, int _offset, int _length, Type _value) {
+        parentNode = parent;
+        key = _key;
+        offset = _offset;
+        length = _length;
+        depth = (parent == null ? 0 : parent.depth) + _length;
+        value = _value;
+        total = _value == null ? 0 : 1;
+    }
+
+    //Bulk loading: the depth is known first, the key and the parent when the node is complete
+    TrieNode(int _depth, Type _value) {
+        depth = _depth;
+        value = _value;
+        total = _value == null ? 0 : 1;
+    }
+
+    public void SetValue(Type _value)               { value = _value; }
+    public void SetKey(char[] _key, int _offset, int _length) { key = _key; offset = _offset; length = _length; }
+    public void SetParentNode(TrieNode<Type> _parent) { parentNode = _parent; }
+    public Type GetValue()                          { return value; }
+    public char[] GetPrefix()                       { return key; }
+    public int GetOffset()                          { return offset; }
+    public int GetLength()                          { return length; }
+    public int GetDepth()                           { return depth; }
+    public char GetLabel()                          { return key[offset]; }
+    public TrieNode<Type> GetParentNode()           { return parentNode; }
+    public int GetChildCount()                      { return count; }
+    public int GetTotal()                           { return total; }
+    public void SetTotal(int _total)                { total = _total; }
+    public int GetChildCapacity()                   { return children == null ? 0 : children.length; }
+
+    //Estimated heap bytes of the node and its table; a key array shared by split halves
+    //is counted with the node that starts at its beginning
+    public long GetRetainedBytes() {
+        //six references and six ints
+        long bytes = MemoryEstimate.Object(6 * MemoryEstimate.REFERENCE + 6 * 4);
+        if(key != null && offset == 0) bytes += MemoryEstimate.Array(key.length, 2);
+        if(labels != null) bytes += MemoryEstimate.Array(labels.length, 2);
+        if(index != null) bytes += MemoryEstimate.Array(index.length, 1);
+        if(children != null) bytes += MemoryEstimate.Array(children.length, MemoryEstimate.REFERENCE);
+        return bytes;
+    }
+
+    //Position of the first label not less than the given one in the sorted kinds
+    private int Search(int label) {
+        if(count <= MEDIUM) {
+            int i = 0;
+            while(i < count && labels[i] < label) i++;
+            return i;
+        }
+        
+        int low = 0, high = count;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(labels[middle] < label) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    public TrieNode<Type> GetChild(char label) {
+        if(labels != null) {
+            int i = Search(label);
+            return i < count && labels[i] == label ? children[i] : null;
+        }
+        if(children == null || label >= DIRECT) return null;
+        if(index != null) {
+            int slot = index[label] & 0xff;
+            return slot == 0 ? null : children[slot - 1];
+        }
+        return children[label];
+    }
+
+    //Child with the smallest label greater than the given one (-1 for the first child), or null
+    public TrieNode<Type> NextChild(int label) {
+        if(labels != null) {
+            int i = Search(label + 1);
+            return i < count ? children[i] : null;
+        }
+        if(children == null) return null;
+        for(int c = label + 1; c < DIRECT; c++) {
+            TrieNode<Type> child = index != null
+                ? (index[c] == 0 ? null : children[(index[c] & 0xff) - 1])
+                : children[c];
+            if(child != null)
+                return child;
+        }
+        return null;
+    }
+
+    //Child with the greatest label less than the given one (0x10000 for the last child), or null
+    public TrieNode<Type> PrevChild(int label) {
+        if(labels != null) {
+            int i = Search(label) - 1;
+            return i >= 0 ? children[i] : null;
+        }
+        if(children == null) return null;
+        for(int c = Math.min(label, DIRECT) - 1; c >= 0; c--) {
+            TrieNode<Type> child = index != null
+                ? (index[c] == 0 ? null : children[(index[c] & 0xff) - 1])
+                : children[c];
+            if(child != null)
+                return child;
+        }
+        return null;
+    }
+
+    //Adds the child or replaces the one with the same label
+    public void SetChild(TrieNode<Type> child) {
+        char label = child.GetLabel();
+
+        if(children == null) {
+            labels = new char[SMALL];
+            children = new TrieNode[SMALL];
+        }
+
+        if(labels != null) {
+            int i = Search(label);
+            if(i < count && labels[i] == label) {
+                children[i] = child;
+                return;
+            }
+            if(count == children.length) {
+                if(count == MEDIUM && label < DIRECT && labels[count - 1] < DIRECT) {
+                    Resize(INDEXED, false);
+                    SetChild(child);
+                    return;
+                }
+                Resize(count == SMALL ? MEDIUM : count << 1, true);
+                i = Search(label);
+            }
+            System.arraycopy(labels, i, labels, i + 1, count - i);
+            System.arraycopy(children, i, children, i + 1, count - i);
+            labels[i] = label;
+            children[i] = child;
+            count++;
+            return;
+        }
+
+        if(label >= DIRECT) {
+            Resize(count << 1, true);
+            SetChild(child);
+            return;
+        }
+
+        if(index != null) {
+            if(index[label] != 0) {
+                children[(index[label] & 0xff) - 1] = child;
+                return;
+            }
+            if(count == INDEXED) {
+                Resize(DIRECT, false);
+                SetChild(child);
+                return;
+            }
+            children[count] = child;
+            index[label] = (byte)++count;
+            return;
+        }
+
+        if(children[label] == null) count++;
+        children[label] = child;
+    }
+
+    public void RemoveChild(char label) {
+        if(labels != null) {
+            int i = Search(label);
+            if(i == count || labels[i] != label) return;
+
+            System.arraycopy(labels, i + 1, labels, i, count - i - 1);
+            System.arraycopy(children, i + 1, children, i, count - i - 1);
+            children[--count] = null;
+
+            if(count == 0) {
+                labels = null;
+                children = null;
+            }
+            else if(count < SMALL && children.length == MEDIUM) Resize(SMALL, true);
+            else if(children.length > MEDIUM && count < children.length >> 2) Resize(Math.max(MEDIUM, children.length >> 1), true);
+            return;
+        }
+
+        if(index != null) {
+            int slot = label < DIRECT ? index[label] & 0xff : 0;
+            if(slot == 0) return;
+
+            //the last child moves into the hole, so children stay dense
+            index[label] = 0;
+            count--;
+            if(slot - 1 != count) {
+                children[slot - 1] = children[count];
+                index[children[count].GetLabel()] = (byte)slot;
+            }
+            children[count] = null;
+
+            if(count < MEDIUM - 3) Resize(MEDIUM, true);
+            return;
+        }
+
+        if(label >= DIRECT || children[label] == null) return;
+        children[label] = null;
+        count--;
+        if(count < INDEXED - 10) Resize(INDEXED, false);
+    }
+
+    //Moves the children into a table of the given kind; shrinking keeps some slack so a
+    //node on the boundary does not switch kinds on every insert and delete
+    private void Resize(int capacity, boolean sorted) {
+        TrieNode<Type>[] old = children;
+        char[] oldLabels = labels;
+        byte[] oldIndex = index;
+        int oldCount = count;
+
+        labels = sorted ? new char[capacity] : null;
+        index = !sorted && capacity == INDEXED ? new byte[DIRECT] : null;
+        children = new TrieNode[capacity];
+        count = 0;
+
+        if(oldLabels != null || oldIndex != null) {
+            for(int i = 0; i < oldCount; i++)
+                Append(old[i]);
+        }
+        else {
+            for(int c = 0; c < DIRECT; c++)
+                if(old[c] != null)
+                    Append(old[c]);
+        }
+
+        //a dense 48 table is not sorted, the sorted kinds need it to be
+        if(labels != null && oldIndex != null)
+            Sort();
+    }
+
+    private void Append(TrieNode<Type> child) {
+        char label = child.GetLabel();
+
+        if(labels != null) labels[count] = label;
+        if(index != null) index[label] = (byte)(count + 1);
+
+        if(labels == null && index == null) children[label] = child;
+        else children[count] = child;
+        count++;
+    }
+
+    private void Sort() {
+        for(int i = 1; i < count; i++) {
+            char label = labels[i];
+            TrieNode<Type> child = children[i];
+            int j = i;
+            for(; j > 0 && labels[j - 1] > label; j--) {
+                labels[j] = labels[j - 1];
+                children[j] = children[j - 1];
+            }
+            labels[j] = label;
+            children[j] = child;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+
+package classtrie;
+
+//Shape of a Trie, copied at the moment of the call. The depth of a key is the number of
+//nodes a lookup of it visits below the root; fan-out counts are grouped by powers of
+//two: bucket 0 holds the leaves, bucket b the nodes with [2^(b-1), 2^b) children
+public class TrieStatistics {
+    private static final int DEPTHS = 64;
+    private static final int FAN_OUTS = 18;
+
+    private int nodes, entries, maxDepth, maxFanOut, innerNodes;
+    private long retainedBytes, totalDepth, totalChildren;
+    private int[] depths = new int[DEPTHS], fanOuts = new int[FAN_OUTS];
+
+    TrieStatistics() {
+    }
+
+    public void AddNode(int depth, int childCount, boolean hasValue, long bytes) {
+        nodes++;
+        retainedBytes += bytes;
+        fanOuts[32 - Integer.numberOfLeadingZeros(childCount)]++;
+        if(childCount > maxFanOut) maxFanOut = childCount;
+        if(childCount > 0) {
+            innerNodes++;
+            totalChildren += childCount;
+        }
+        if(!hasValue) return;
+
+        entries++;
+        totalDepth += depth;
+        if(depth > maxDepth) maxDepth = depth;
+        depths[depth < DEPTHS ? depth : DEPTHS - 1]++;
+    }
+
+    public int GetNodes()               { return nodes; }
+    public int GetEntries()             { return entries; }
+    public long GetRetainedBytes()      { return retainedBytes; }
+    public int GetMaxDepth()            { return maxDepth; }
+    public int GetMaxFanOut()           { return maxFanOut; }
+    public int[] GetDepthHistogram()    { return depths.clone(); }
+    public int[] GetFanOutHistogram()   { return fanOuts.clone(); }
+
+    public double GetAverageDepth() {
+        return entries == 0 ? 0 : (double)totalDepth / entries;
+    }
+
+    //Over the nodes having children
+    public double GetAverageFanOut() {
+        return innerNodes == 0 ? 0 : (double)totalChildren / innerNodes;
+    }
+
+    public String toString() {
+        return "nodes: " + nodes + ", entries: " + entries + ", retained bytes: " + retainedBytes
+            + ", average depth: " + String.format("%.3f", GetAverageDepth()) + ", max depth: " + maxDepth
+            + ", average fan-out: " + String.format("%.3f", GetAverageFanOut()) + ", max fan-out: " + maxFanOut;
+    }
+}
@@ -0,0 +1,203 @@
+
+package codec;
+
+import java.nio.ByteBuffer;
+
+//Binary form of keys (UTF-8) and tagged values, read and written at absolute buffer positions.
+//A surrogate pair is one 4 byte sequence; a lone surrogate, which strict UTF-8 can not
+//carry, is written as its own 3 byte sequence and read back unchanged, so every Java
+//string survives a round trip. Both directions are coded here for that reason
+public class ValueCodec {
+    public static final byte NULL = 0;
+    public static final byte INTEGER = 1;
+    public static final byte LONG = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte FLOAT = 4;
+    public static final byte CHARACTER = 5;
+    public static final byte BOOLEAN = 6;
+    public static final byte SHORT = 7;
+    public static final byte BYTE = 8;
+    public static final byte STRING = 9;
+
+    private ValueCodec() {}
+
+    public static int Utf8Length(String key) {
+        int length = 0;
+        for(int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if(c < 0x80) length += 1;
+            else if(c < 0x800) length += 2;
+            else if(Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else length += 3;
+        }
+        return length;
+    }
+
+    //Writes the key without an intermediate byte[] and returns the position after it
+    public static int WriteUtf8(ByteBuffer buffer, int position, String key) {
+        for(int i = 0; i < key.length(); i++) {
+            int c = key.charAt(i);
+
+            if(c < 0x80)
+                buffer.put(position++, (byte)c);
+            else if(c < 0x800) {
+                buffer.put(position++, (byte)(0xc0 | (c >> 6)));
+                buffer.put(position++, (byte)(0x80 | (c & 0x3f)));
+            }
+            else if(Character.isHighSurrogate((char)c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+                c = Character.toCodePoint((char)c, key.charAt(++i));
+                buffer.put(position++, (byte)(0xf0 | (c >> 18)));
+                buffer.put(position++, (byte)(0x80 | ((c >> 12) & 0x3f)));
+                buffer.put(position++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                buffer.put(position++, (byte)(0x80 | (c & 0x3f)));
+            }
+            else {
+                buffer.put(position++, (byte)(0xe0 | (c >> 12)));
+                buffer.put(position++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                buffer.put(position++, (byte)(0x80 | (c & 0x3f)));
+            }
+        }
+        return position;
+    }
+
+    //Compares stored UTF-8 bytes with the key by encoding the key on the fly
+    public static boolean Utf8Equals(ByteBuffer buffer, int position, int length, String key) {
+        int end = position + length;
+
+        for(int i = 0; i < key.length(); i++) {
+            int c = key.charAt(i);
+
+            if(c < 0x80) {
+                if(position + 1 > end || buffer.get(position++) != (byte)c) return false;
+            }
+            else if(c < 0x800) {
+                if(position + 2 > end
+                || buffer.get(position++) != (byte)(0xc0 | (c >> 6))
+                || buffer.get(position++) != (byte)(0x80 | (c & 0x3f))) return false;
+            }
+            else if(Character.isHighSurrogate((char)c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+                c = Character.toCodePoint((char)c, key.charAt(++i));
+                if(position + 4 > end
+                || buffer.get(position++) != (byte)(0xf0 | (c >> 18))
+                || buffer.get(position++) != (byte)(0x80 | ((c >> 12) & 0x3f))
+                || buffer.get(position++) != (byte)(0x80 | ((c >> 6) & 0x3f))
+                || buffer.get(position++) != (byte)(0x80 | (c & 0x3f))) return false;
+            }
+            else {
+                if(position + 3 > end
+                || buffer.get(position++) != (byte)(0xe0 | (c >> 12))
+                || buffer.get(position++) != (byte)(0x80 | ((c >> 6) & 0x3f))
+                || buffer.get(position++) != (byte)(0x80 | (c & 0x3f))) return false;
+            }
+        }
+        return position == end;
+    }
+
+    //The inverse of WriteUtf8; the bytes are trusted to come from it
+    public static String ReadUtf8(ByteBuffer buffer, int position, int length) {
+        char[] chars = new char[length];
+        int end = position + length, count = 0;
+
+        while(position < end) {
+            int b = buffer.get(position++) & 0xff;
+
+            if(b < 0x80)
+                chars[count++] = (char)b;
+            else if(b < 0xe0)
+                chars[count++] = (char)(((b & 0x1f) << 6) | (buffer.get(position++) & 0x3f));
+            else if(b < 0xf0) {
+                int c = ((b & 0x0f) << 12) | ((buffer.get(position) & 0x3f) << 6) | (buffer.get(position + 1) & 0x3f);
+                chars[count++] = (char)c;
+                position += 2;
+            }
+            else {
+                int c = ((b & 0x07) << 18) | ((buffer.get(position) & 0x3f) << 12)
+                    | ((buffer.get(position + 1) & 0x3f) << 6) | (buffer.get(position + 2) & 0x3f);
+                chars[count++] = Character.highSurrogate(c);
+                chars[count++] = Character.lowSurrogate(c);
+                position += 3;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    public static byte TagOf(Object value) {
+        if(value == null)               return NULL;
+        if(value instanceof Integer)    return INTEGER;
+        if(value instanceof Long)       return LONG;
+        if(value instanceof Double)     return DOUBLE;
+        if(value instanceof Float)      return FLOAT;
+        if(value instanceof Character)  return CHARACTER;
+        if(value instanceof Boolean)    return BOOLEAN;
+        if(value instanceof Short)      return SHORT;
+        if(value instanceof Byte)       return BYTE;
+        if(value instanceof String)     return STRING;
+        throw new IllegalArgumentException("Value type is not serializable: " + value.getClass().getName());
+    }
+
+    //Encoded size including the tag byte
+    public static int SizeOf(Object value) {
+        byte tag = TagOf(value);
+        if(tag == STRING) return 1 + 4 + Utf8Length((String)value);
+        return FixedSize(tag);
+    }
+
+    //Encoded size of a value with the given tag, or -1 when it depends on the value
+    public static int FixedSize(byte tag) {
+        switch(tag) {
+            case NULL:      return 1;
+            case INTEGER:   return 1 + 4;
+            case LONG:      return 1 + 8;
+            case DOUBLE:    return 1 + 8;
+            case FLOAT:     return 1 + 4;
+            case CHARACTER: return 1 + 2;
+            case BOOLEAN:   return 1 + 1;
+            case SHORT:     return 1 + 2;
+            case BYTE:      return 1 + 1;
+            case STRING:    return -1;
+            default:        throw new IllegalStateException("Unknown value tag: " + tag);
+        }
+    }
+
+    public static int Write(ByteBuffer buffer, int position, Object value) {
+        byte tag = TagOf(value);
+        buffer.put(position++, tag);
+
+        switch(tag) {
+            case NULL:      return position;
+            case INTEGER:   buffer.putInt(position, (Integer)value);        return position + 4;
+            case LONG:      buffer.putLong(position, (Long)value);          return position + 8;
+            case DOUBLE:    buffer.putDouble(position, (Double)value);      return position + 8;
+            case FLOAT:     buffer.putFloat(position, (Float)value);        return position + 4;
+            case CHARACTER: buffer.putChar(position, (Character)value);     return position + 2;
+            case BOOLEAN:   buffer.put(position, (byte)((Boolean)value ? 1 : 0)); return position + 1;
+            case SHORT:     buffer.putShort(position, (Short)value);        return position + 2;
+            case BYTE:      buffer.put(position, (Byte)value);              return position + 1;
+            default:
+                String string = (String)value;
+                buffer.putInt(position, Utf8Length(string));
+                return WriteUtf8(buffer, position + 4, string);
+        }
+    }
+
+    public static Object Read(ByteBuffer buffer, int position) {
+        byte tag = buffer.get(position++);
+
+        switch(tag) {
+            case NULL:      return null;
+            case INTEGER:   return buffer.getInt(position);
+            case LONG:      return buffer.getLong(position);
+            case DOUBLE:    return buffer.getDouble(position);
+            case FLOAT:     return buffer.getFloat(position);
+            case CHARACTER: return buffer.getChar(position);
+            case BOOLEAN:   return buffer.get(position) != 0;
+            case SHORT:     return buffer.getShort(position);
+            case BYTE:      return buffer.get(position);
+            case STRING:    return ReadUtf8(buffer, position + 4, buffer.getInt(position));
+            default:        throw new IllegalStateException("Unknown value tag: " + tag);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+
+package pkgclass.hashmap;
+
+//Weight of a cached entry, counted against Hash.SetMaximumWeight
+interface Weigher<Type> {
+    int Weigh(String key, Type value);
+}